@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Immutable view of a task stored on a document, as returned by the {@link TaskStore}.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class Task
+{
+    private final DocumentReference documentReference;
+
+    private final String documentTitle;
+
+    private final String rid;
+
+    private final String content;
+
+    private final String creator;
+
+    private final List<String> responsible;
+
+    private final Date dueDate;
+
+    private final boolean done;
+
+    /**
+     * Creates a new task.
+     *
+     * @param documentReference the reference of the document holding the task
+     * @param documentTitle the raw title of the document holding the task
+     * @param rid the unique identifier of the task
+     * @param content the content of the task
+     * @param creator the user who created the task
+     * @param responsible the users responsible for the task, as written in the macro
+     * @param dueDate the due date of the task, {@code null} if it has none
+     * @param done whether the task is done
+     */
+    public Task(DocumentReference documentReference, String documentTitle, String rid, String content,
+        String creator, List<String> responsible, Date dueDate, boolean done)
+    {
+        this.documentReference = documentReference;
+        this.documentTitle = documentTitle;
+        this.rid = rid;
+        this.content = content;
+        this.creator = creator;
+        this.responsible = Collections.unmodifiableList(responsible);
+        this.dueDate = dueDate != null ? new Date(dueDate.getTime()) : null;
+        this.done = done;
+    }
+
+    /**
+     * @return the reference of the document holding the task
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.documentReference;
+    }
+
+    /**
+     * @return the raw title of the document holding the task
+     */
+    public String getDocumentTitle()
+    {
+        return this.documentTitle;
+    }
+
+    /**
+     * @return the unique identifier of the task
+     */
+    public String getRid()
+    {
+        return this.rid;
+    }
+
+    /**
+     * @return the content of the task
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the user who created the task
+     */
+    public String getCreator()
+    {
+        return this.creator;
+    }
+
+    /**
+     * @return the users responsible for the task, as written in the macro
+     */
+    public List<String> getResponsible()
+    {
+        return this.responsible;
+    }
+
+    /**
+     * @return the due date of the task, {@code null} if it has none
+     */
+    public Date getDueDate()
+    {
+        return this.dueDate != null ? new Date(this.dueDate.getTime()) : null;
+    }
+
+    /**
+     * @return {@code true} if the task is done
+     */
+    public boolean isDone()
+    {
+        return this.done;
+    }
+}
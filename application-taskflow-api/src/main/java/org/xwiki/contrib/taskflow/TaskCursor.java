@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Position of a task in a sorted list of tasks, used to seek the page of tasks following it instead of skipping the
+ * previous pages. The cursor holds the sort key of the task followed by the document and the identifier of the task,
+ * which break the ties between the tasks having the same sort key.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskCursor
+{
+    private static final String SEPARATOR = ".";
+
+    private static final String NULL_VALUE = "-";
+
+    private static final int PART_COUNT = 4;
+
+    private final TaskQuery.SortField sortField;
+
+    private final Object sortValue;
+
+    private final String document;
+
+    private final String rid;
+
+    /**
+     * @param sortField the field the tasks are sorted on, {@code null} if they are only sorted by document and
+     *     identifier
+     * @param sortValue the value of the sort field for the task, a {@link Date} for the due date, an {@link Integer}
+     *     for the done state and a {@link String} otherwise; {@code null} for no value
+     * @param document the local reference of the document holding the task
+     * @param rid the identifier of the task
+     */
+    public TaskCursor(TaskQuery.SortField sortField, Object sortValue, String document, String rid)
+    {
+        this.sortField = sortField;
+        this.sortValue = sortValue;
+        this.document = document;
+        this.rid = rid;
+    }
+
+    /**
+     * @return the field the tasks are sorted on, {@code null} if they are only sorted by document and identifier
+     */
+    public TaskQuery.SortField getSortField()
+    {
+        return this.sortField;
+    }
+
+    /**
+     * @return the value of the sort field for the task, {@code null} for no value
+     */
+    public Object getSortValue()
+    {
+        return this.sortValue;
+    }
+
+    /**
+     * @return the local reference of the document holding the task
+     */
+    public String getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * @return the identifier of the task
+     */
+    public String getRid()
+    {
+        return this.rid;
+    }
+
+    /**
+     * @return the opaque representation of this cursor, safe to be used in a URL
+     * @see #parse(String)
+     */
+    @Override
+    public String toString()
+    {
+        String value;
+        if (this.sortValue instanceof Date) {
+            value = String.valueOf(((Date) this.sortValue).getTime());
+        } else {
+            value = this.sortValue != null ? this.sortValue.toString() : null;
+        }
+        return String.join(SEPARATOR, this.sortField != null ? this.sortField.name() : NULL_VALUE, encode(value),
+            encode(this.document), encode(this.rid));
+    }
+
+    /**
+     * @param cursor the representation of a cursor, as returned by {@link #toString()}
+     * @return the corresponding cursor
+     * @throws IllegalArgumentException if the given value is not a valid cursor
+     */
+    public static TaskCursor parse(String cursor)
+    {
+        String[] parts = cursor.split("\\.", -1);
+        if (parts.length != PART_COUNT) {
+            throw new IllegalArgumentException(String.format("Invalid task cursor [%s]", cursor));
+        }
+        TaskQuery.SortField sortField = NULL_VALUE.equals(parts[0]) ? null : TaskQuery.SortField.valueOf(parts[0]);
+        String value = decode(parts[1]);
+        Object sortValue = value;
+        if (value != null && sortField == TaskQuery.SortField.DUE_DATE) {
+            sortValue = new Date(Long.parseLong(value));
+        } else if (value != null && sortField == TaskQuery.SortField.DONE) {
+            sortValue = Integer.valueOf(value);
+        }
+        String document = decode(parts[2]);
+        String rid = decode(parts[3]);
+        if (document == null || rid == null) {
+            throw new IllegalArgumentException(String.format("Invalid task cursor [%s]", cursor));
+        }
+        return new TaskCursor(sortField, sortValue, document, rid);
+    }
+
+    private static String encode(String value)
+    {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decode(String value)
+    {
+        if (NULL_VALUE.equals(value)) {
+            return null;
+        }
+        return new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+    }
+}
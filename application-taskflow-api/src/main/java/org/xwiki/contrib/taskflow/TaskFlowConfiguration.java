@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Configuration options of the task flow application, read from {@code xwiki.properties}.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Role
+public interface TaskFlowConfiguration
+{
+    /**
+     * @return {@code true} if the reminders are fired at the exact minute by the in-memory timing wheel, in which case
+     *     the scheduler job only re-arms the wheel as a safety sweep, {@code false} if the scheduler job sends the
+     *     reminders of the coming hour on each run
+     */
+    boolean isTimingWheelEnabled();
+
+    /**
+     * @return {@code true} if each user gets a single digest notification listing all their tasks due in a reminder
+     *     run, {@code false} to send one notification per task
+     */
+    boolean isReminderDigestEnabled();
+
+    /**
+     * @return the number of worker threads firing the task flow notifications in the background
+     */
+    int getNotificationThreads();
+
+    /**
+     * @return the maximum number of notifications waiting to be fired; when it is reached the notifications are fired
+     *     synchronously by the thread saving the document
+     */
+    int getNotificationQueueSize();
+
+    /**
+     * @return the maximum number of wikis whose reminders are processed in parallel by the scheduler job
+     */
+    int getReminderThreads();
+
+    /**
+     * @return the maximum age in seconds of the total number of tasks shown by the task report when no task content or
+     *     due date filter is set, which may then not account for the latest changes; {@code 0} to always show the
+     *     exact total
+     */
+    int getReportEstimatedTotalMaxAge();
+
+    /**
+     * @return the class of the objects relating the pages holding tasks to a project, used to filter the tasks by
+     *     project
+     */
+    String getProjectClass();
+
+    /**
+     * @return the property of the {@link #getProjectClass() project class} holding the reference of the project page
+     */
+    String getProjectProperty();
+}
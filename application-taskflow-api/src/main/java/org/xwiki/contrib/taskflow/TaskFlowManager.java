@@ -19,11 +19,15 @@
  */
 package org.xwiki.contrib.taskflow;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.xwiki.component.annotation.Role;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryException;
 
 /**
  * Task flow manager allowing to handle operations on tasks.
@@ -41,6 +45,23 @@ public interface TaskFlowManager
      */
     Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> getTasksToRemind();
 
+    /**
+     * Pushes the reminders due in the given period to the given consumer, grouped by user, as immutable snapshots
+     * holding everything needed to notify the user without loading the documents of the tasks.
+     *
+     * @param from the start of the period, included
+     * @param to the end of the period, excluded
+     * @param sentReminders the keys of the reminders that were already sent, as returned by
+     *     {@link TaskReminder#getKey()}, which are skipped. The keys of the pushed reminders are not added to this
+     *     set, it is up to the consumer to add them once the reminders are actually sent. {@code null} to push all
+     *     the reminders of the period
+     * @param consumer called once per user to remind, with the reminders of that user in due date order; each user's
+     *     batch is pushed as soon as it is complete, so that only the reminders of one user are held at a time
+     * @throws QueryException if the due tasks cannot be retrieved
+     */
+    void streamTasksToRemind(Date from, Date to, Set<String> sentReminders,
+        BiConsumer<DocumentReference, List<TaskReminder>> consumer) throws QueryException;
+
     /**
      * Sends a notification to a responsible user about a specific task.
      *
@@ -53,6 +74,14 @@ public interface TaskFlowManager
     void notifyResponsibleUser(DocumentReference taskRef, DocumentReference userRef, String eventType, Map<String,
         String> taskEventParams);
 
+    /**
+     * Sends a single digest notification to a responsible user about several due tasks.
+     *
+     * @param userRef the reference to the user who is responsible for the tasks
+     * @param tasksEventParams the extra parameters of each due task
+     */
+    void notifyResponsibleUser(DocumentReference userRef, List<Map<String, String>> tasksEventParams);
+
     /**
      * Generates a unique identifier (RID) for a task or object.
      * <p>
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow;
+
+import java.util.List;
+
+/**
+ * A page of tasks returned by {@link TaskStore#seek(TaskQuery)}, with the cursor to get the next page.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskPage
+{
+    private final List<Task> tasks;
+
+    private final TaskCursor next;
+
+    /**
+     * @param tasks the tasks of the page
+     * @param next the cursor of the last task of the page, {@code null} if there is no next page
+     */
+    public TaskPage(List<Task> tasks, TaskCursor next)
+    {
+        this.tasks = tasks;
+        this.next = next;
+    }
+
+    /**
+     * @return the tasks of the page
+     */
+    public List<Task> getTasks()
+    {
+        return this.tasks;
+    }
+
+    /**
+     * @return the cursor of the last task of the page, to be set on the query of the next page; {@code null} if there
+     *     is no next page
+     */
+    public TaskCursor getNext()
+    {
+        return this.next;
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Criteria, sort order and page of a {@link TaskStore} query. All the criteria are optional and combined with a
+ * logical AND.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskQuery
+{
+    /**
+     * The fields the tasks can be sorted on.
+     *
+     * @version $Id$
+     */
+    public enum SortField
+    {
+        /**
+         * The title of the document holding the task.
+         */
+        DOCUMENT_TITLE,
+
+        /**
+         * The content of the task.
+         */
+        CONTENT,
+
+        /**
+         * The users responsible for the task.
+         */
+        RESPONSIBLE,
+
+        /**
+         * The due date of the task.
+         */
+        DUE_DATE,
+
+        /**
+         * The done state of the task.
+         */
+        DONE
+    }
+
+    private DocumentReference responsible;
+
+    private DocumentReference creator;
+
+    private DocumentReference participant;
+
+    private DocumentReference document;
+
+    private String documentPrefix;
+
+    private final List<String> excludedDocumentPrefixes = new ArrayList<>();
+
+    private DocumentReference project;
+
+    private String content;
+
+    private Date dueFrom;
+
+    private Date dueTo;
+
+    private boolean dueDateRequired;
+
+    private Boolean done;
+
+    private boolean protectedExcluded;
+
+    private boolean hiddenExcluded;
+
+    private SortField sortField;
+
+    private boolean ascending = true;
+
+    private int offset;
+
+    private int limit = -1;
+
+    private TaskCursor after;
+
+    /**
+     * @return the user the tasks are assigned to, {@code null} for any user
+     */
+    public DocumentReference getResponsible()
+    {
+        return this.responsible;
+    }
+
+    /**
+     * @param responsible the user the tasks are assigned to, {@code null} for any user
+     */
+    public void setResponsible(DocumentReference responsible)
+    {
+        this.responsible = responsible;
+    }
+
+    /**
+     * @return the user who created the tasks, {@code null} for any user
+     */
+    public DocumentReference getCreator()
+    {
+        return this.creator;
+    }
+
+    /**
+     * @param creator the user who created the tasks, {@code null} for any user
+     */
+    public void setCreator(DocumentReference creator)
+    {
+        this.creator = creator;
+    }
+
+    /**
+     * @return the user who either created the tasks or is responsible for them, {@code null} for any user
+     */
+    public DocumentReference getParticipant()
+    {
+        return this.participant;
+    }
+
+    /**
+     * @param participant the user who either created the tasks or is responsible for them, {@code null} for any user
+     */
+    public void setParticipant(DocumentReference participant)
+    {
+        this.participant = participant;
+    }
+
+    /**
+     * @return the document holding the tasks, {@code null} for any document
+     */
+    public DocumentReference getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * @param document the document holding the tasks, {@code null} for any document
+     */
+    public void setDocument(DocumentReference document)
+    {
+        this.document = document;
+    }
+
+    /**
+     * @return the prefix of the full name of the documents holding the tasks, e.g. a space name followed by a dot,
+     *     {@code null} for any document
+     */
+    public String getDocumentPrefix()
+    {
+        return this.documentPrefix;
+    }
+
+    /**
+     * @param documentPrefix the prefix of the full name of the documents holding the tasks, e.g. a space name
+     *     followed by a dot, {@code null} for any document
+     */
+    public void setDocumentPrefix(String documentPrefix)
+    {
+        this.documentPrefix = documentPrefix;
+    }
+
+    /**
+     * @return the prefixes of the full name of the documents whose tasks are excluded
+     */
+    public List<String> getExcludedDocumentPrefixes()
+    {
+        return Collections.unmodifiableList(this.excludedDocumentPrefixes);
+    }
+
+    /**
+     * @param excludedDocumentPrefix a prefix of the full name of the documents whose tasks are excluded, e.g.
+     *     {@code Sandbox.}
+     */
+    public void addExcludedDocumentPrefix(String excludedDocumentPrefix)
+    {
+        this.excludedDocumentPrefixes.add(excludedDocumentPrefix);
+    }
+
+    /**
+     * @return the project the documents holding the tasks are linked to, {@code null} for any project
+     */
+    public DocumentReference getProject()
+    {
+        return this.project;
+    }
+
+    /**
+     * When both a project and a document prefix are set, the tasks of the documents matching either of them are
+     * returned.
+     *
+     * @param project the project the documents holding the tasks are linked to, {@code null} for any project
+     */
+    public void setProject(DocumentReference project)
+    {
+        this.project = project;
+    }
+
+    /**
+     * @return the text the content of the tasks contains, ignoring the case, {@code null} for any content
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @param content the text the content of the tasks contains, ignoring the case, {@code null} for any content
+     */
+    public void setContent(String content)
+    {
+        this.content = content;
+    }
+
+    /**
+     * @return the lower bound, included, of the due date of the tasks, {@code null} for no lower bound
+     */
+    public Date getDueFrom()
+    {
+        return this.dueFrom;
+    }
+
+    /**
+     * @return the upper bound, excluded, of the due date of the tasks, {@code null} for no upper bound
+     */
+    public Date getDueTo()
+    {
+        return this.dueTo;
+    }
+
+    /**
+     * @param dueFrom the lower bound, included, of the due date of the tasks, {@code null} for no lower bound
+     * @param dueTo the upper bound, excluded, of the due date of the tasks, {@code null} for no upper bound
+     */
+    public void setDueDateRange(Date dueFrom, Date dueTo)
+    {
+        this.dueFrom = dueFrom;
+        this.dueTo = dueTo;
+    }
+
+    /**
+     * @return {@code true} if only the tasks with a due date are returned
+     */
+    public boolean isDueDateRequired()
+    {
+        return this.dueDateRequired;
+    }
+
+    /**
+     * @param dueDateRequired {@code true} to return only the tasks with a due date
+     */
+    public void setDueDateRequired(boolean dueDateRequired)
+    {
+        this.dueDateRequired = dueDateRequired;
+    }
+
+    /**
+     * @return the done state of the tasks, {@code null} for both done and open tasks
+     */
+    public Boolean getDone()
+    {
+        return this.done;
+    }
+
+    /**
+     * @param done the done state of the tasks, {@code null} for both done and open tasks
+     */
+    public void setDone(Boolean done)
+    {
+        this.done = done;
+    }
+
+    /**
+     * @return {@code true} if the protected tasks are excluded
+     */
+    public boolean isProtectedExcluded()
+    {
+        return this.protectedExcluded;
+    }
+
+    /**
+     * @param protectedExcluded {@code true} to exclude the protected tasks
+     */
+    public void setProtectedExcluded(boolean protectedExcluded)
+    {
+        this.protectedExcluded = protectedExcluded;
+    }
+
+    /**
+     * @return {@code true} if the tasks of hidden documents are excluded
+     */
+    public boolean isHiddenExcluded()
+    {
+        return this.hiddenExcluded;
+    }
+
+    /**
+     * @param hiddenExcluded {@code true} to exclude the tasks of hidden documents
+     */
+    public void setHiddenExcluded(boolean hiddenExcluded)
+    {
+        this.hiddenExcluded = hiddenExcluded;
+    }
+
+    /**
+     * @return the field the tasks are sorted on, {@code null} for no specific order
+     */
+    public SortField getSortField()
+    {
+        return this.sortField;
+    }
+
+    /**
+     * @return {@code true} for an ascending order, {@code false} for a descending order
+     */
+    public boolean isAscending()
+    {
+        return this.ascending;
+    }
+
+    /**
+     * @param sortField the field the tasks are sorted on, {@code null} for no specific order
+     * @param ascending {@code true} for an ascending order, {@code false} for a descending order
+     */
+    public void setSort(SortField sortField, boolean ascending)
+    {
+        this.sortField = sortField;
+        this.ascending = ascending;
+    }
+
+    /**
+     * @return the index of the first task to return
+     */
+    public int getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @param offset the index of the first task to return
+     */
+    public void setOffset(int offset)
+    {
+        this.offset = Math.max(offset, 0);
+    }
+
+    /**
+     * @return the maximum number of tasks to return, a negative value for no limit
+     */
+    public int getLimit()
+    {
+        return this.limit;
+    }
+
+    /**
+     * @param limit the maximum number of tasks to return, a negative value for no limit
+     */
+    public void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+
+    /**
+     * @return the cursor of the task after which the page starts, {@code null} for the first page
+     */
+    public TaskCursor getAfter()
+    {
+        return this.after;
+    }
+
+    /**
+     * Sets the position of the page for {@link TaskStore#seek(TaskQuery)}, which ignores the offset.
+     *
+     * @param after the cursor of the task after which the page starts, {@code null} for the first page
+     */
+    public void setAfter(TaskCursor after)
+    {
+        this.after = after;
+    }
+}
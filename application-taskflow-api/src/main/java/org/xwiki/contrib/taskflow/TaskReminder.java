@@ -0,0 +1,151 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow;
+
+import java.util.Date;
+import java.util.Objects;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Immutable snapshot of a task reminder to send to one of the users responsible for the task, holding everything
+ * needed to build the notification without loading the document of the task.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskReminder
+{
+    private final String rid;
+
+    private final DocumentReference documentReference;
+
+    private final String documentTitle;
+
+    private final DocumentReference userReference;
+
+    private final Date dueDate;
+
+    private final String content;
+
+    private final String creator;
+
+    private final String interval;
+
+    /**
+     * Creates a new reminder.
+     *
+     * @param rid the unique identifier of the task
+     * @param documentReference the reference of the document holding the task
+     * @param documentTitle the title of the document holding the task
+     * @param userReference the user to remind
+     * @param dueDate the due date of the task
+     * @param content the content of the task
+     * @param creator the user who created the task
+     * @param interval the reminder interval, e.g. "h1" or "d2"
+     */
+    public TaskReminder(String rid, DocumentReference documentReference, String documentTitle,
+        DocumentReference userReference, Date dueDate, String content, String creator, String interval)
+    {
+        this.rid = rid;
+        this.documentReference = documentReference;
+        this.documentTitle = documentTitle;
+        this.userReference = userReference;
+        this.dueDate = new Date(dueDate.getTime());
+        this.content = content;
+        this.creator = creator;
+        this.interval = interval;
+    }
+
+    /**
+     * @return the unique identifier of the task
+     */
+    public String getRid()
+    {
+        return this.rid;
+    }
+
+    /**
+     * @return the reference of the document holding the task
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.documentReference;
+    }
+
+    /**
+     * @return the title of the document holding the task
+     */
+    public String getDocumentTitle()
+    {
+        return this.documentTitle;
+    }
+
+    /**
+     * @return the user to remind
+     */
+    public DocumentReference getUserReference()
+    {
+        return this.userReference;
+    }
+
+    /**
+     * @return the due date of the task
+     */
+    public Date getDueDate()
+    {
+        return new Date(this.dueDate.getTime());
+    }
+
+    /**
+     * @return the content of the task
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the user who created the task
+     */
+    public String getCreator()
+    {
+        return this.creator;
+    }
+
+    /**
+     * @return the reminder interval, e.g. "h1" or "d2"
+     */
+    public String getInterval()
+    {
+        return this.interval;
+    }
+
+    /**
+     * @return the compact key identifying this reminder among the reminders already sent in a period: the identifier
+     *     of the task, followed by the reminder interval and a hash of the user to remind and of the document,
+     *     separated by colons
+     */
+    public String getKey()
+    {
+        return String.join(":", this.rid, this.interval,
+            Integer.toHexString(Objects.hash(this.userReference, this.documentReference)));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.query.QueryException;
+
+/**
+ * Typed access to the tasks stored on the documents of the current wiki, so that every page listing tasks relies on
+ * the same queries. Only the tasks of the documents the current user is allowed to view are returned and counted.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Role
+public interface TaskStore
+{
+    /**
+     * @param query the criteria, the sort order and the page of the tasks to return
+     * @return the matching tasks
+     * @throws QueryException if the tasks cannot be retrieved
+     */
+    List<Task> search(TaskQuery query) throws QueryException;
+
+    /**
+     * Returns the page of tasks following the cursor of the query, whatever the position of this page. Unlike the
+     * offset of {@link #search(TaskQuery)}, the cursor is not shifted by the tasks created or deleted meanwhile before
+     * it. The tasks without a value for the sort field come last, whatever the sort order.
+     *
+     * @param query the criteria, the sort order, the cursor and the size of the page of tasks to return; the offset is
+     *     ignored
+     * @return the page of matching tasks following the cursor
+     * @throws QueryException if the tasks cannot be retrieved
+     */
+    TaskPage seek(TaskQuery query) throws QueryException;
+
+    /**
+     * @param query the criteria of the tasks to count; the sort order and the page are ignored
+     * @return the number of matching tasks
+     * @throws QueryException if the tasks cannot be counted
+     */
+    long count(TaskQuery query) throws QueryException;
+}
@@ -0,0 +1,364 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+
+/**
+ * Lightweight scanner extracting the "checktask" macros of a content in xwiki/2.1 syntax, without parsing the rest of
+ * the content, and inserting the missing task identifiers in place.
+ * <p>
+ * Like the xwiki/2.1 parser, the scanner ignores the escaped text, the verbatim blocks and the content of the other
+ * macros. Whenever the content is not one it can scan with certainty (unclosed or malformed macro, nested checktask,
+ * blank identifier, etc.), it gives up and lets the caller parse the content.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = CheckTaskScanner.class)
+@Singleton
+public class CheckTaskScanner
+{
+    private static final String MACRO_ID = "checktask";
+
+    private static final String RID = "rid";
+
+    private static final String OPEN = "{{";
+
+    private static final String CLOSE = "}}";
+
+    private static final String SELF_CLOSE = "/}}";
+
+    private static final String END_OPEN = "{{/";
+
+    private static final String VERBATIM_OPEN = "{{{";
+
+    private static final String VERBATIM_CLOSE = "}}}";
+
+    private static final char ESCAPE = '~';
+
+    private static final char QUOTE = '"';
+
+    /**
+     * A checktask macro found in a content.
+     *
+     * @version $Id$
+     */
+    public static final class Macro
+    {
+        private final Map<String, String> parameters;
+
+        private final String content;
+
+        private final int ridOffset;
+
+        Macro(Map<String, String> parameters, String content, int ridOffset)
+        {
+            this.parameters = parameters;
+            this.content = content;
+            this.ridOffset = ridOffset;
+        }
+
+        /**
+         * @return the parameters of the macro, unescaped
+         */
+        public Map<String, String> getParameters()
+        {
+            return this.parameters;
+        }
+
+        /**
+         * @return the content of the macro, {@code null} if it has none
+         */
+        public String getContent()
+        {
+            return this.content;
+        }
+
+        /**
+         * @return {@code true} if the macro has a task identifier parameter
+         */
+        public boolean hasRid()
+        {
+            return this.ridOffset < 0;
+        }
+    }
+
+    /**
+     * A macro opening tag.
+     */
+    private static final class Tag
+    {
+        private final String name;
+
+        private final Map<String, String> parameters;
+
+        private final int parametersEnd;
+
+        private final int end;
+
+        private final boolean selfClosing;
+
+        Tag(String name, Map<String, String> parameters, int parametersEnd, int end, boolean selfClosing)
+        {
+            this.name = name;
+            this.parameters = parameters;
+            this.parametersEnd = parametersEnd;
+            this.end = end;
+            this.selfClosing = selfClosing;
+        }
+    }
+
+    /**
+     * @param content the content to scan, in xwiki/2.1 syntax
+     * @return the checktask macros of the content in the order they appear, {@code null} if the content has to be
+     *     parsed to find them
+     */
+    public List<Macro> scan(String content)
+    {
+        List<Macro> macros = new ArrayList<>();
+        int index = 0;
+        while (index < content.length()) {
+            if (content.charAt(index) == ESCAPE) {
+                index += 2;
+            } else if (content.startsWith(VERBATIM_OPEN, index)) {
+                index = skipVerbatim(content, index);
+            } else if (content.startsWith(OPEN, index)) {
+                Tag tag = parseTag(content, index);
+                if (tag == null) {
+                    return null;
+                }
+                if (MACRO_ID.equals(tag.name)) {
+                    index = addMacro(content, tag, macros);
+                } else {
+                    index = tag.selfClosing ? tag.end : skipMacro(content, tag);
+                }
+            } else {
+                index++;
+            }
+            if (index < 0) {
+                return null;
+            }
+        }
+        return macros;
+    }
+
+    /**
+     * Inserts the identifiers of the given macros, which have none, in the content they were scanned from.
+     *
+     * @param content the scanned content
+     * @param rids the identifiers to insert, by macro
+     * @return the content with the identifiers inserted, unchanged elsewhere
+     */
+    public String insertRids(String content, Map<Macro, String> rids)
+    {
+        List<Macro> macros = new ArrayList<>(rids.keySet());
+        macros.sort(Comparator.comparingInt(macro -> macro.ridOffset));
+        StringBuilder result = new StringBuilder(content.length());
+        int index = 0;
+        for (Macro macro : macros) {
+            result.append(content, index, macro.ridOffset);
+            result.append(' ').append(RID).append("=\"").append(rids.get(macro)).append(QUOTE);
+            index = macro.ridOffset;
+        }
+        return result.append(content, index, content.length()).toString();
+    }
+
+    private int addMacro(String content, Tag tag, List<Macro> macros)
+    {
+        String macroContent = null;
+        int end = tag.end;
+        if (!tag.selfClosing) {
+            int close = content.indexOf(END_OPEN + MACRO_ID + CLOSE, tag.end);
+            if (close < 0) {
+                return -1;
+            }
+            macroContent = content.substring(tag.end, close);
+            if (macroContent.contains(OPEN + MACRO_ID) || StringUtils.startsWithAny(macroContent, "\n", "\r")
+                || StringUtils.endsWithAny(macroContent, "\n", "\r"))
+            {
+                // Nested checktask macros or multi-line content: let the parser match the tags and trim the content.
+                return -1;
+            }
+            end = close + END_OPEN.length() + MACRO_ID.length() + CLOSE.length();
+        }
+        String rid = tag.parameters.get(RID);
+        if (rid != null && StringUtils.isBlank(rid)) {
+            // The blank identifier would have to be replaced rather than inserted.
+            return -1;
+        }
+        macros.add(new Macro(tag.parameters, macroContent, rid != null ? -1 : tag.parametersEnd));
+        return end;
+    }
+
+    private int skipVerbatim(String content, int start)
+    {
+        int end = content.indexOf(VERBATIM_CLOSE, start + VERBATIM_OPEN.length());
+        if (end < 0 || content.substring(start + VERBATIM_OPEN.length(), end).contains(VERBATIM_OPEN)) {
+            return -1;
+        }
+        return end + VERBATIM_CLOSE.length();
+    }
+
+    /**
+     * Skips the content of a macro other than checktask, which is not parsed, up to its matching closing tag.
+     *
+     * @return the index following the closing tag of the macro, -1 if it cannot be found
+     */
+    private int skipMacro(String content, Tag tag)
+    {
+        String endTag = END_OPEN + tag.name + CLOSE;
+        int depth = 1;
+        int index = tag.end;
+        while (depth > 0) {
+            int close = content.indexOf(endTag, index);
+            if (close < 0) {
+                return -1;
+            }
+            int open = indexOfTag(content, tag.name, index);
+            if (open >= 0 && open < close) {
+                Tag nestedTag = parseTag(content, open);
+                if (nestedTag == null) {
+                    return -1;
+                }
+                depth += nestedTag.selfClosing ? 0 : 1;
+                index = nestedTag.end;
+            } else {
+                depth--;
+                index = close + endTag.length();
+            }
+        }
+        return index;
+    }
+
+    private int indexOfTag(String content, String name, int from)
+    {
+        String start = OPEN + name;
+        int index = content.indexOf(start, from);
+        while (index >= 0) {
+            int next = index + start.length();
+            if (next < content.length() && !isNameCharacter(content.charAt(next))) {
+                return index;
+            }
+            index = content.indexOf(start, next);
+        }
+        return -1;
+    }
+
+    /**
+     * @return the opening tag starting at the given index, {@code null} if it is a closing tag or is malformed
+     */
+    private Tag parseTag(String content, int start)
+    {
+        int index = start + OPEN.length();
+        int nameEnd = index;
+        while (nameEnd < content.length() && isNameCharacter(content.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        if (nameEnd == index) {
+            return null;
+        }
+        String name = content.substring(index, nameEnd);
+        Map<String, String> parameters = new LinkedHashMap<>();
+        index = nameEnd;
+        while (index < content.length()) {
+            int parameterStart = skipWhitespaces(content, index);
+            if (content.startsWith(SELF_CLOSE, parameterStart)) {
+                return new Tag(name, parameters, index, parameterStart + SELF_CLOSE.length(), true);
+            } else if (content.startsWith(CLOSE, parameterStart)) {
+                return new Tag(name, parameters, index, parameterStart + CLOSE.length(), false);
+            } else if (parameterStart == index) {
+                // The parameters must be separated by whitespaces.
+                return null;
+            }
+            index = parseParameter(content, parameterStart, parameters);
+            if (index < 0) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the index following the parameter, -1 if it is malformed
+     */
+    private int parseParameter(String content, int start, Map<String, String> parameters)
+    {
+        int index = start;
+        while (index < content.length() && isNameCharacter(content.charAt(index))) {
+            index++;
+        }
+        if (index == start || index >= content.length() || content.charAt(index) != '=') {
+            return -1;
+        }
+        String name = content.substring(start, index);
+        index++;
+        StringBuilder value = new StringBuilder();
+        if (index < content.length() && content.charAt(index) == QUOTE) {
+            index++;
+            while (index < content.length() && content.charAt(index) != QUOTE) {
+                if (content.charAt(index) == ESCAPE) {
+                    index++;
+                }
+                if (index < content.length()) {
+                    value.append(content.charAt(index++));
+                }
+            }
+            if (index >= content.length()) {
+                return -1;
+            }
+            index++;
+        } else {
+            while (index < content.length() && !Character.isWhitespace(content.charAt(index))
+                && !content.startsWith(CLOSE, index) && !content.startsWith(SELF_CLOSE, index))
+            {
+                value.append(content.charAt(index++));
+            }
+        }
+        if (parameters.put(name, value.toString()) != null) {
+            // Duplicate parameter.
+            return -1;
+        }
+        return index;
+    }
+
+    private int skipWhitespaces(String content, int start)
+    {
+        int index = start;
+        while (index < content.length() && Character.isWhitespace(content.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private boolean isNameCharacter(char character)
+    {
+        return Character.isLetterOrDigit(character) || character == '_' || character == '-' || character == '.';
+    }
+}
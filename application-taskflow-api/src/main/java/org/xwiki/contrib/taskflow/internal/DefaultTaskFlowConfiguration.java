@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+
+/**
+ * Default implementation of the {@link TaskFlowConfiguration} role, reading the {@code taskflow.*} properties of
+ * {@code xwiki.properties}.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component
+@Singleton
+public class DefaultTaskFlowConfiguration implements TaskFlowConfiguration
+{
+    private static final String PREFIX = "taskflow.";
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Override
+    public boolean isTimingWheelEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "reminders.timingWheel", false);
+    }
+
+    @Override
+    public boolean isReminderDigestEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "reminders.digest", true);
+    }
+
+    @Override
+    public int getNotificationThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "notifications.threads", 2);
+    }
+
+    @Override
+    public int getNotificationQueueSize()
+    {
+        return this.configuration.getProperty(PREFIX + "notifications.queueSize", 1000);
+    }
+
+    @Override
+    public int getReminderThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "reminders.threads", 4);
+    }
+
+    @Override
+    public int getReportEstimatedTotalMaxAge()
+    {
+        return this.configuration.getProperty(PREFIX + "report.estimatedTotalMaxAge", 0);
+    }
+
+    @Override
+    public String getProjectClass()
+    {
+        return this.configuration.getProperty(PREFIX + "project.class", "Protokoll.Code.ProtokollClass");
+    }
+
+    @Override
+    public String getProjectProperty()
+    {
+        return this.configuration.getProperty(PREFIX + "project.property", "projectPage");
+    }
+}
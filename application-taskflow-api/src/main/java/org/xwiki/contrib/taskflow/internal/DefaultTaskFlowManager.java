@@ -19,10 +19,9 @@
  */
 package org.xwiki.contrib.taskflow.internal;
 
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -31,33 +30,27 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 import javax.inject.Inject;
-import javax.inject.Named;
-import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.taskflow.TaskFlowManager;
+import org.xwiki.contrib.taskflow.TaskReminder;
+import org.xwiki.contrib.taskflow.internal.index.TaskDueDateIndex;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.contrib.taskflow.internal.notification.TaskFlowNotificationDispatcher;
 import org.xwiki.contrib.taskflow.notifications.events.TaskFlowAssignedEvent;
+import org.xwiki.contrib.taskflow.notifications.events.TaskFlowDigestEvent;
 import org.xwiki.contrib.taskflow.notifications.events.TaskFlowExpiringEvent;
 import org.xwiki.model.reference.DocumentReference;
-import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
-import org.xwiki.observation.ObservationManager;
-import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
-import org.xwiki.query.QueryFilter;
-import org.xwiki.query.QueryManager;
-import org.xwiki.text.StringUtils;
-
-import com.xpn.xwiki.XWiki;
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.BaseObject;
 
 /**
  * Default implementation of the {@link TaskFlowManager} role.
@@ -69,12 +62,9 @@ import com.xpn.xwiki.objects.BaseObject;
 @Singleton
 public class DefaultTaskFlowManager implements TaskFlowManager
 {
-    /**
-     * Default event source.
-     */
-    private static final String EVENT_SOURCE = "org.xwiki.contrib:application-taskFlow-api";
+    private static final long MIN_INTERVAL_HOURS = 1L;
 
-    private static final String TASK_CLASS_NAME = "Macros.CheckboxedTask.Code.TaskClass";
+    private static final long MAX_INTERVAL_HOURS = 120L;
 
     @Inject
     private EntityReferenceSerializer<String> serializer;
@@ -83,126 +73,153 @@ public class DefaultTaskFlowManager implements TaskFlowManager
     private Logger logger;
 
     @Inject
-    private ObservationManager observationManager;
-
-    @Inject
-    private Provider<XWikiContext> xcontextProvider;
-
-    @Inject
-    @Named("document")
-    private QueryFilter documentQueryFilter;
+    private TaskFlowNotificationDispatcher notificationDispatcher;
 
     @Inject
-    @Named("unique")
-    private QueryFilter uniqueQueryFilter;
+    private TaskDueDateIndex dueDateIndex;
 
     @Inject
-    private QueryManager queryManager;
-
-    @Inject
-    @Named("current")
-    private DocumentReferenceResolver<String> resolver;
+    private TaskFlowMetrics metrics;
 
     /**
      * Builds a nested data model representing tasks that are due within specific reminder intervals.
      * <p>
-     * The returned structure maps each interval code (e.g., "h1", "h4") to a set of documents, each containing task
-     * identifiers and their associated responsible users.
-     * <p>
-     * Example initial output: interval → document → task ID → list of responsible users.
+     * The returned structure maps each interval code (e.g., "h1", "h4") to the responsible users, each with the
+     * documents holding their tasks and the identifiers of these tasks: interval → user → document → list of task IDs.
      * <pre>
      * {
      *   "h1": {
-     *     Main.WebHome: {
-     *       "ql4-1761153864688": [
-     *         "XWiki.testUser",
-     *         "XWiki.Admin"
+     *     XWiki.testUser: {
+     *       Main.WebHome: [
+     *         "ql4-1761153864688"
+     *       ]
+     *     },
+     *     XWiki.Admin: {
+     *       Main.WebHome: [
+     *         "ql4-1761153864688"
      *       ]
      *     }
      *   }
      * }
      * </pre>
-     * Becomes: interval → user → document → list of task IDs.
+     * The reminders of the coming hour are returned.
      *
-     * @return a map that represents a transformation of the initial output map.
+     * @return a map representing tasks to be reminded by hour intervals
      */
     @Override
     public Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> getTasksToRemind()
     {
-        Map<String, Long> intervals = Map.of(
-            "h1", 1L,
-            "h2", 2L,
-            "h4", 4L,
-            "h8", 8L,
-            "h12", 12L,
-            "d1", 24L,
-            "d2", 48L,
-            "d5", 120L
-        );
-
-        XWikiContext context = xcontextProvider.get();
-        XWiki xwiki = context.getWiki();
-        DocumentReference taskClassRef = resolver.resolve(TASK_CLASS_NAME);
-
-        Map<String, Map<DocumentReference, Map<String, List<DocumentReference>>>> tasksToRemindMap = new HashMap<>();
-        ZonedDateTime now = ZonedDateTime.now(ZoneId.systemDefault());
-
-        for (Map.Entry<String, Long> entry : intervals.entrySet()) {
-            long intervalHours = entry.getValue();
-
-            ZonedDateTime startHours = now.plusHours(intervalHours);
-            ZonedDateTime endHours = startHours.plusHours(1);
-            Date startHoursDate = Date.from(startHours.toInstant());
-            Date endHoursDate = Date.from(endHours.toInstant());
-
-            try {
-                List<DocumentReference> taskRefs = getTaskReferences(startHoursDate, endHoursDate);
+        Date now = new Date();
+        Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> tasksToRemindMap = new HashMap<>();
+        try {
+            streamTasksToRemind(now, Date.from(now.toInstant().plus(1, ChronoUnit.HOURS)), null,
+                (userRef, reminders) -> {
+                    for (TaskReminder reminder : reminders) {
+                        tasksToRemindMap
+                            .computeIfAbsent(reminder.getInterval(), k -> new HashMap<>())
+                            .computeIfAbsent(userRef, k -> new HashMap<>())
+                            .computeIfAbsent(reminder.getDocumentReference(), k -> new ArrayList<>())
+                            .add(reminder.getRid());
+                    }
+                });
+        } catch (QueryException e) {
+            logger.error("Failed to get due tasks", e);
+            return Collections.emptyMap();
+        }
+        return tasksToRemindMap;
+    }
 
-                Map<DocumentReference, Map<String, List<DocumentReference>>> taskRefMap = new HashMap<>();
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All the intervals are served by a single range lookup over the widest reminder window in the in-memory due date
+     * index, which holds only the open tasks and the properties needed here. The tasks are then assigned to their
+     * reminder intervals in memory, without querying the store or loading any document. Since tasks already due are
+     * skipped, the lookup stays bounded however long the period is, e.g. when catching up after a downtime.
+     * <p>
+     * The tasks are read from the index one user at a time, in user order, and the reminder snapshots of a user are
+     * pushed as soon as they are built, so that the reminders of a single user are held at a time, whatever the number
+     * of users to remind, and nothing needs to be sorted.
+     */
+    @Override
+    public void streamTasksToRemind(Date from, Date to, Set<String> sentReminders,
+        BiConsumer<DocumentReference, List<TaskReminder>> consumer) throws QueryException
+    {
+        if (!from.before(to)) {
+            return;
+        }
+        Date now = new Date();
 
-                for (DocumentReference taskRef : taskRefs) {
-                    XWikiDocument taskDoc = xwiki.getDocument(taskRef, context);
-                    Map<String, List<DocumentReference>> taskDetailsMap =
-                        getTaskDetailsMap(taskDoc, taskClassRef, entry.getKey(), startHoursDate, endHoursDate);
+        // A single window covering every reminder interval: [from + 1h, to + 120h), without the tasks already due.
+        Date windowStart = Date.from(from.toInstant().plus(MIN_INTERVAL_HOURS, ChronoUnit.HOURS));
+        if (windowStart.before(now)) {
+            windowStart = now;
+        }
+        Date windowEnd = Date.from(to.toInstant().plus(MAX_INTERVAL_HOURS, ChronoUnit.HOURS));
+
+        long startTime = System.nanoTime();
+        AtomicLong pushTime = new AtomicLong();
+        AtomicInteger userCount = new AtomicInteger();
+        dueDateIndex.streamDueTasksByUser(windowStart, windowEnd, (userRef, dueTasks) -> {
+            List<TaskReminder> userReminders = new ArrayList<>();
+            for (TaskDueEntry dueTask : dueTasks) {
+                addReminders(dueTask, userRef, from, to, sentReminders, userReminders);
+            }
+            if (!userReminders.isEmpty()) {
+                long pushStartTime = System.nanoTime();
+                userCount.incrementAndGet();
+                consumer.accept(userRef, userReminders);
+                pushTime.addAndGet(System.nanoTime() - pushStartTime);
+            }
+        });
+        // The time spent by the consumer sending the reminders is not part of the selection.
+        metrics.recordReminderSelection(startTime + pushTime.get());
+        logger.debug("Selected the tasks to remind of [{}] users in [{}] ms.", userCount,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime - pushTime.get()));
+    }
 
-                    if (!taskDetailsMap.isEmpty()) {
-                        taskRefMap.put(taskRef, taskDetailsMap);
-                    }
-                }
-                if (!taskRefMap.isEmpty()) {
-                    tasksToRemindMap.put(entry.getKey(), taskRefMap);
+    private void addReminders(TaskDueEntry dueTask, DocumentReference userRef, Date from, Date to,
+        Set<String> sentReminders, List<TaskReminder> userReminders)
+    {
+        Instant dueDate = dueTask.getDueDate().toInstant();
+        for (String intervalKey : dueTask.getReminderTimes()) {
+            ReminderInterval interval = ReminderInterval.fromKey(intervalKey);
+            if (interval == null) {
+                continue;
+            }
+            Instant reminderDate = dueDate.minus(interval.getOffset());
+            if (!reminderDate.isBefore(from.toInstant()) && reminderDate.isBefore(to.toInstant())) {
+                TaskReminder reminder = dueTask.toReminder(userRef, interval);
+                if (sentReminders == null || !sentReminders.contains(reminder.getKey())) {
+                    userReminders.add(reminder);
                 }
-            } catch (QueryException e) {
-                logger.error("Failed to get due tasks", e);
-                return Collections.emptyMap();
-            } catch (XWikiException e) {
-                throw new RuntimeException(e);
             }
         }
-        return invertTasksToRemind(tasksToRemindMap);
     }
 
     @Override
     public void notifyResponsibleUser(DocumentReference taskRef, DocumentReference userRef, String eventType,
         Map<String, String> taskEventParams)
     {
-        XWikiContext context = xcontextProvider.get();
-        try {
-            XWikiDocument taskDoc = context.getWiki().getDocument(taskRef, context);
-            Set<String> target = new HashSet<>();
-            target.add(serializer.serialize(userRef));
+        Set<String> target = new HashSet<>();
+        target.add(serializer.serialize(userRef));
 
-            if (eventType.equals("expiring")) {
-                observationManager.notify(new TaskFlowExpiringEvent(target, taskEventParams), EVENT_SOURCE, taskDoc);
-            } else {
-                observationManager.notify(new TaskFlowAssignedEvent(target, taskEventParams), EVENT_SOURCE, taskDoc);
-            }
-        } catch (XWikiException e) {
-            logger.error(
-                String.format("An error appeared when notifying responsible user of the document [%s].", taskRef), e);
+        if (eventType.equals("expiring")) {
+            notificationDispatcher.dispatch(new TaskFlowExpiringEvent(target, taskEventParams), taskRef);
+        } else {
+            notificationDispatcher.dispatch(new TaskFlowAssignedEvent(target, taskEventParams), taskRef);
         }
     }
 
+    @Override
+    public void notifyResponsibleUser(DocumentReference userRef, List<Map<String, String>> tasksEventParams)
+    {
+        Set<String> target = new HashSet<>();
+        target.add(serializer.serialize(userRef));
+        Map<String, String> digestParams = Map.of("taskCount", String.valueOf(tasksEventParams.size()));
+        notificationDispatcher.dispatch(new TaskFlowDigestEvent(target, digestParams, tasksEventParams), null);
+    }
+
     @Override
     public String generateRID()
     {
@@ -215,106 +232,4 @@ public class DefaultTaskFlowManager implements TaskFlowManager
         }
         return prefix.append("-").append(System.currentTimeMillis()).toString();
     }
-
-    private List<DocumentReference> getTaskReferences(Date start, Date end) throws QueryException
-    {
-        String statement = String.format(
-            "from doc.object(%s) task where task.dueDate >= :startHoursDate and task.dueDate < :endHoursDate",
-            TASK_CLASS_NAME);
-        Query query = queryManager.createQuery(statement, Query.XWQL);
-        query.bindValue("startHoursDate", start).bindValue("endHoursDate", end);
-        query.addFilter(documentQueryFilter).addFilter(uniqueQueryFilter);
-        return query.execute();
-    }
-
-    private Map<String, List<DocumentReference>> getTaskDetailsMap(XWikiDocument taskDoc,
-        DocumentReference taskClassRef, String intervalKey, Date startDate, Date endDate)
-    {
-        Map<String, List<DocumentReference>> taskDetailsMap = new HashMap<>();
-        List<BaseObject> taskObjs = taskDoc.getXObjects(taskClassRef);
-
-        for (BaseObject taskObj : taskObjs) {
-            String usernames = taskObj.getLargeStringValue("responsible");
-            List<String> reminderTimes = taskObj.getListValue("reminderTimes");
-            Date dueDate = taskObj.getDateValue("dueDate");
-
-            if (StringUtils.isBlank(usernames) || dueDate == null || !reminderTimes.contains(intervalKey)) {
-                continue;
-            }
-
-            if (dueDate.compareTo(startDate) >= 0 && dueDate.compareTo(endDate) < 0) {
-                List<DocumentReference> responsibleUsers = Arrays.stream(usernames.split(","))
-                    .map(String::trim)
-                    .filter(s -> !s.isEmpty())
-                    .map(resolver::resolve)
-                    .collect(Collectors.toList());
-
-                taskDetailsMap.put(taskObj.getStringValue("rid"), responsibleUsers);
-            }
-        }
-
-        return taskDetailsMap;
-    }
-
-    /**
-     * Transforms a nested task reminder map into a user-centric structure for easier notification dispatching.
-     * <p>
-     * The input map is organized by interval → document → task ID → responsible users. This method inverts that
-     * structure to group tasks by responsible user instead.
-     * <p>
-     * The resulting data model has the following shape:
-     * <pre>
-     * {
-     *   "h1": {
-     *     XWiki.testUser: {
-     *       Main.WebHome: [
-     *         "ql4-1761153864688"
-     *       ]
-     *     },
-     *     XWiki.Admin: {
-     *       Main.WebHome: [
-     *         "ql4-1761153864688"
-     *       ]
-     *     }
-     *   }
-     * }
-     * </pre>
-     *
-     * @param originalMap the original task map structured as: interval → document → task ID → list of responsible
-     *     users
-     * @return a transformed map structured as: interval → user → document → list of task IDs
-     */
-    private Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> invertTasksToRemind(
-        Map<String, Map<DocumentReference, Map<String, List<DocumentReference>>>> originalMap)
-    {
-
-        Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> invertedMap = new HashMap<>();
-
-        for (Map.Entry<String, Map<DocumentReference,
-            Map<String, List<DocumentReference>>>> intervalEntry : originalMap.entrySet()) {
-            String interval = intervalEntry.getKey();
-            Map<DocumentReference, Map<DocumentReference, List<String>>> userMap = new HashMap<>();
-
-            for (Map.Entry<DocumentReference, Map<String, List<DocumentReference>>> docEntry : intervalEntry.getValue()
-                .entrySet()) {
-                DocumentReference docRef = docEntry.getKey();
-
-                for (Map.Entry<String, List<DocumentReference>> taskEntry : docEntry.getValue().entrySet()) {
-                    String taskId = taskEntry.getKey();
-                    List<DocumentReference> users = taskEntry.getValue();
-
-                    for (DocumentReference userRef : users) {
-                        userMap
-                            .computeIfAbsent(userRef, k -> new HashMap<>())
-                            .computeIfAbsent(docRef, k -> new ArrayList<>())
-                            .add(taskId);
-                    }
-                }
-            }
-
-            invertedMap.put(interval, userMap);
-        }
-
-        return invertedMap;
-    }
 }
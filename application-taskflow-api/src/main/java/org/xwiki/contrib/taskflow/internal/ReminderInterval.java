@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal;
+
+import java.time.Duration;
+
+/**
+ * The reminder intervals that can be configured on a task, matching the values of the {@code reminderTimes} property
+ * of the task class.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public enum ReminderInterval
+{
+    /**
+     * 1 hour before the due date.
+     */
+    H1("h1", 1),
+
+    /**
+     * 2 hours before the due date.
+     */
+    H2("h2", 2),
+
+    /**
+     * 4 hours before the due date.
+     */
+    H4("h4", 4),
+
+    /**
+     * 8 hours before the due date.
+     */
+    H8("h8", 8),
+
+    /**
+     * 12 hours before the due date.
+     */
+    H12("h12", 12),
+
+    /**
+     * 1 day before the due date.
+     */
+    D1("d1", 24),
+
+    /**
+     * 2 days before the due date.
+     */
+    D2("d2", 48),
+
+    /**
+     * 5 days before the due date.
+     */
+    D5("d5", 120);
+
+    private final String key;
+
+    private final Duration offset;
+
+    ReminderInterval(String key, long hours)
+    {
+        this.key = key;
+        this.offset = Duration.ofHours(hours);
+    }
+
+    /**
+     * @return the key of the interval, as stored in the task objects
+     */
+    public String getKey()
+    {
+        return this.key;
+    }
+
+    /**
+     * @return how long before the due date the reminder is sent
+     */
+    public Duration getOffset()
+    {
+        return this.offset;
+    }
+
+    /**
+     * @param key the key of an interval, as stored in the task objects
+     * @return the matching interval, or {@code null} if the key is unknown
+     */
+    public static ReminderInterval fromKey(String key)
+    {
+        for (ReminderInterval interval : values()) {
+            if (interval.key.equals(key)) {
+                return interval;
+            }
+        }
+        return null;
+    }
+}
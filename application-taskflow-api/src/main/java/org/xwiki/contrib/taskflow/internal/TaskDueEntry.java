@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.xwiki.contrib.taskflow.TaskReminder;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * Lightweight, immutable view of the task properties needed to compute reminders, read straight from a query
+ * projection instead of a loaded document.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskDueEntry
+{
+    private final DocumentReference documentReference;
+
+    private final String rid;
+
+    private final Date dueDate;
+
+    private final List<DocumentReference> responsible;
+
+    private final List<String> reminderTimes;
+
+    private final String content;
+
+    private final String creator;
+
+    private final String documentTitle;
+
+    /**
+     * Creates a new entry.
+     *
+     * @param documentReference the reference of the document holding the task
+     * @param rid the unique identifier of the task
+     * @param dueDate the due date of the task
+     * @param responsible the users responsible for the task
+     * @param reminderTimes the reminder intervals configured for the task
+     * @param content the content of the task
+     * @param creator the user who created the task
+     * @param documentTitle the title of the document holding the task
+     */
+    public TaskDueEntry(DocumentReference documentReference, String rid, Date dueDate,
+        List<DocumentReference> responsible, List<String> reminderTimes, String content, String creator,
+        String documentTitle)
+    {
+        this.documentReference = documentReference;
+        this.rid = rid;
+        this.dueDate = dueDate;
+        this.responsible = Collections.unmodifiableList(responsible);
+        this.reminderTimes = Collections.unmodifiableList(reminderTimes);
+        this.content = content;
+        this.creator = creator;
+        this.documentTitle = documentTitle;
+    }
+
+    /**
+     * @return the reference of the document holding the task
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.documentReference;
+    }
+
+    /**
+     * @return the unique identifier of the task
+     */
+    public String getRid()
+    {
+        return this.rid;
+    }
+
+    /**
+     * @return the due date of the task
+     */
+    public Date getDueDate()
+    {
+        return this.dueDate;
+    }
+
+    /**
+     * @return the users responsible for the task
+     */
+    public List<DocumentReference> getResponsible()
+    {
+        return this.responsible;
+    }
+
+    /**
+     * @return the reminder intervals configured for the task
+     */
+    public List<String> getReminderTimes()
+    {
+        return this.reminderTimes;
+    }
+
+    /**
+     * @return the content of the task
+     */
+    public String getContent()
+    {
+        return this.content;
+    }
+
+    /**
+     * @return the user who created the task
+     */
+    public String getCreator()
+    {
+        return this.creator;
+    }
+
+    /**
+     * @return the title of the document holding the task
+     */
+    public String getDocumentTitle()
+    {
+        return this.documentTitle;
+    }
+
+    /**
+     * @param userReference the user to remind
+     * @param interval the reminder interval
+     * @return the snapshot of the reminder of this task to the given user for the given interval
+     */
+    public TaskReminder toReminder(DocumentReference userReference, ReminderInterval interval)
+    {
+        return new TaskReminder(this.rid, this.documentReference, this.documentTitle, userReference, this.dueDate,
+            this.content, this.creator, interval.getKey());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Runs code from the background threads of the task flow application in a fresh execution context targeting a given
+ * wiki.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskFlowContextRunner.class)
+@Singleton
+public class TaskFlowContextRunner
+{
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * Runs the given code in a new execution context.
+     *
+     * @param wikiId the identifier of the wiki to set as current wiki
+     * @param userReference the user to set as current user, {@code null} for the guest user
+     * @param runnable the code to run
+     * @throws ExecutionContextException if the execution context cannot be initialized
+     */
+    public void run(String wikiId, DocumentReference userReference, Runnable runnable)
+        throws ExecutionContextException
+    {
+        this.executionContextManager.initialize(new ExecutionContext());
+        try {
+            XWikiContext xcontext = this.xcontextProvider.get();
+            xcontext.setWikiId(wikiId);
+            xcontext.setUserReference(userReference);
+            runnable.run();
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+}
@@ -19,28 +19,24 @@
  */
 package org.xwiki.contrib.taskflow.internal;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.internal.notification.TaskEventPayloadCodec;
 import org.xwiki.contrib.taskflow.notifications.events.AbstractTaskFlowEvent;
 import org.xwiki.contrib.taskflow.notifications.events.TaskFlowAssignedEvent;
+import org.xwiki.contrib.taskflow.notifications.events.TaskFlowDigestEvent;
 import org.xwiki.contrib.taskflow.notifications.events.TaskFlowExpiringEvent;
 import org.xwiki.eventstream.Event;
 import org.xwiki.eventstream.RecordableEvent;
 import org.xwiki.eventstream.RecordableEventConverter;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-
 /**
- * Add additional information to {@link TaskFlowAssignedEvent}.
+ * Stores the parameters of the task notifications in the body of their events, see {@link TaskEventPayloadCodec}.
  *
  * @version $Id$
  * @since 2.0
@@ -59,17 +55,14 @@ public class TaskFlowEventConverter implements RecordableEventConverter
     private RecordableEventConverter defaultConverter;
 
     @Inject
-    private Logger logger;
+    private TaskEventPayloadCodec payloadCodec;
 
     @Override
     public Event convert(RecordableEvent recordableEvent, String source, Object data) throws Exception
     {
-        AbstractTaskFlowEvent taskEvent = (AbstractTaskFlowEvent) recordableEvent;
-        Map<String, Object> taskEventExtraParams = new HashMap<>(taskEvent.getTaskEventParams());
-
         Event convertedEvent = defaultConverter.convert(recordableEvent, source, data);
 
-        convertedEvent.setBody(serializeParams(taskEventExtraParams));
+        convertedEvent.setBody(payloadCodec.encode((AbstractTaskFlowEvent) recordableEvent));
 
         return convertedEvent;
     }
@@ -77,23 +70,6 @@ public class TaskFlowEventConverter implements RecordableEventConverter
     @Override
     public List<RecordableEvent> getSupportedEvents()
     {
-        return List.of(new TaskFlowAssignedEvent(), new TaskFlowExpiringEvent());
-    }
-
-    /**
-     * Utility method to convert an object to JSON.
-     *
-     * @param params the localization parameters to serialize.
-     */
-    private String serializeParams(Map<String, Object> params)
-    {
-        String json = null;
-        try {
-            ObjectWriter ow = new ObjectMapper().writer();
-            json = ow.writeValueAsString(params);
-        } catch (Exception e) {
-            logger.warn("Error while serializing parameters of TaskChangedEvent:", e);
-        }
-        return json;
+        return List.of(new TaskFlowAssignedEvent(), new TaskFlowExpiringEvent(), new TaskFlowDigestEvent());
     }
 }
@@ -36,6 +36,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.taskflow.TaskFlowManager;
+import org.xwiki.contrib.taskflow.notifications.events.TaskFlowAssignedEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
@@ -43,14 +44,13 @@ import org.xwiki.rendering.block.MacroBlock;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
  * Component responsible for processing "checktask" macros embedded in XWiki documents.
  * <p>
  * This processor extracts macro parameters, synchronizes them with task objects in the document,
- * and optionally triggers notifications to responsible users.
+ * and collects the notifications to send to the responsible users once the document is saved.
  * </p>
  *
  * <p>
@@ -73,6 +73,8 @@ public class TaskMacroProcessor
 
     private static final String DUE_DATE = "dueDate";
 
+    private static final String TASK = "task";
+
     private static final String SEPARATOR = ",";
 
     @Inject
@@ -91,42 +93,74 @@ public class TaskMacroProcessor
      * Processes a single "checktask" macro block within an XWiki document.
      * <p>
      * This method extracts task metadata from the macro, creates or updates the corresponding task object,
-     * and tracks the task's RID. If the task is newly created, it sends notifications to the responsible users.
+     * and tracks the task's RID. If the task is newly created, it notifies the responsible users once the document is
+     * saved, see {@link TaskSynchronization#getNotifications()}.
      * </p>
      *
      * @param macro the macro block containing task parameters and content
-     * @param doc the XWiki document where the macro resides
-     * @param taskClassRef reference to the task class used for storing task objects
-     * @param foundRids a set used to collect all RIDs found during processing
-     * @param simpleDateFormat the date format used to parse the macro's due date
-     * @param context the current XWiki execution context
+     * @param synchronization the synchronization of the document where the macro resides
      * @throws XWikiException if an error occurs while accessing or modifying the document
      */
-    public void processMacro(MacroBlock macro, XWikiDocument doc, DocumentReference taskClassRef,
-        Set<String> foundRids, SimpleDateFormat simpleDateFormat, XWikiContext context) throws XWikiException
+    public void processMacro(MacroBlock macro, TaskSynchronization synchronization) throws XWikiException
     {
-        Map<String, String> params = new HashMap<>(macro.getParameters());
-        String rid = resolveRID(macro, params);
-        foundRids.add(rid);
+        String rid = processTask(macro.getParameters(), macro.getContent(), synchronization);
+        if (!rid.equals(macro.getParameter(RID))) {
+            macro.setParameter(RID, rid);
+        }
+    }
+
+    /**
+     * Processes the parameters and the content of a single "checktask" macro, as {@link #processMacro} does, without
+     * modifying the macro itself.
+     *
+     * @param parameters the parameters of the macro
+     * @param taskContent the content of the macro
+     * @param synchronization the synchronization of the document where the macro resides
+     * @return the RID of the task, generated if the macro has none
+     * @throws XWikiException if an error occurs while accessing or modifying the document
+     */
+    public String processTask(Map<String, String> parameters, String taskContent,
+        TaskSynchronization synchronization) throws XWikiException
+    {
+        XWikiContext context = synchronization.getContext();
+        Map<String, String> params = new HashMap<>(parameters);
+        String rid = params.get(RID);
+        if (StringUtils.isBlank(rid)) {
+            rid = taskFlowManager.generateRID();
+        }
+        synchronization.getFoundRids().add(rid);
 
         String taskCreator = serializer.serialize(context.getUserReference());
-        BaseObject taskObj = doc.getXObject(taskClassRef, RID, rid);
+        BaseObject taskObj = synchronization.getTaskObject(rid);
         boolean sendNotification = taskObj == null;
+        if (sendNotification) {
+            taskObj = createTaskObject(synchronization, rid, taskCreator);
+        }
 
-        taskObj = getOrCreateTaskObject(doc, taskClassRef, rid, taskCreator, context);
-
-        Date macroDueDate = parseDueDate(params.getOrDefault(DUE_DATE, ""), simpleDateFormat);
-        if (macroDueDate != null) {
+        // Only set the properties that changed, so that the unchanged task objects are not saved again.
+        Date macroDueDate = parseDueDate(params.getOrDefault(DUE_DATE, ""), synchronization.getDateFormat());
+        Date dueDate = taskObj.getDateValue(DUE_DATE);
+        if (macroDueDate != null && (dueDate == null || dueDate.getTime() != macroDueDate.getTime())) {
             taskObj.setDateValue(DUE_DATE, macroDueDate);
         }
 
-        String taskContent = macro.getContent();
-        taskObj.setStringValue("task", taskContent);
+        if (sendNotification || !StringUtils.defaultString(taskContent).equals(taskObj.getStringValue(TASK))) {
+            taskObj.setStringValue(TASK, taskContent);
+        }
 
         String responsible = params.getOrDefault(RESPONSIBLE, "");
-        taskObj.setLargeStringValue(RESPONSIBLE, responsible);
+        if (!responsible.equals(taskObj.getLargeStringValue(RESPONSIBLE))) {
+            taskObj.setLargeStringValue(RESPONSIBLE, responsible);
+        }
 
-        taskObj.setStringListValue(REMINDER_TIMES, List.of(params.getOrDefault(REMINDER_TIMES, "").split(SEPARATOR)));
+        List<String> reminderTimes = Arrays
+            .stream(params.getOrDefault(REMINDER_TIMES, "").split(SEPARATOR))
+            .map(String::trim)
+            .filter(StringUtils::isNotEmpty)
+            .collect(Collectors.toList());
+        if (!reminderTimes.equals(taskObj.getListValue(REMINDER_TIMES))) {
+            taskObj.setStringListValue(REMINDER_TIMES, reminderTimes);
+        }
 
         if (sendNotification) {
             List<DocumentReference> responsibleUsers = Arrays
@@ -135,30 +169,20 @@ public class TaskMacroProcessor
                 .filter(s -> !s.isEmpty())
                 .map(resolver::resolve)
                 .collect(Collectors.toList());
-            notifyUsers(doc, rid, taskContent, taskCreator, responsibleUsers, context);
-        }
-    }
-
-    private String resolveRID(MacroBlock macro, Map<String, String> params)
-    {
-        String rid = params.get(RID);
-        if (StringUtils.isBlank(rid)) {
-            rid = taskFlowManager.generateRID();
-            macro.setParameter(RID, rid);
+            notifyUsers(synchronization, rid, taskContent, taskCreator, responsibleUsers);
         }
         return rid;
     }
 
-    private BaseObject getOrCreateTaskObject(XWikiDocument doc, DocumentReference taskClassRef,
-        String rid, String taskCreator, XWikiContext context) throws XWikiException
+    private BaseObject createTaskObject(TaskSynchronization synchronization, String rid, String taskCreator)
+        throws XWikiException
     {
-        BaseObject taskObj = doc.getXObject(taskClassRef, RID, rid);
-        if (taskObj == null) {
-            taskObj = doc.newXObject(taskClassRef, context);
-            taskObj.setStringValue(RID, rid);
-            taskObj.setIntValue("done", 0);
-            taskObj.setLargeStringValue("creator", taskCreator);
-        }
+        BaseObject taskObj = synchronization.getDocument().newXObject(synchronization.getTaskClassReference(),
+            synchronization.getContext());
+        taskObj.setStringValue(RID, rid);
+        taskObj.setIntValue("done", 0);
+        taskObj.setLargeStringValue("creator", taskCreator);
+        synchronization.addTaskObject(rid, taskObj);
         return taskObj;
     }
 
@@ -175,17 +199,21 @@ public class TaskMacroProcessor
         }
     }
 
-    private void notifyUsers(XWikiDocument doc, String rid, String taskContent,
-        String taskCreator, List<DocumentReference> users, XWikiContext context)
+    private void notifyUsers(TaskSynchronization synchronization, String rid, String taskContent,
+        String taskCreator, List<DocumentReference> users)
     {
-        String taskUrl = doc.getExternalURL("view", context) + "#" + rid;
-        for (DocumentReference user : users) {
-            Map<String, String> taskEventParams = Map.of(
-                "taskContent", taskContent,
-                "taskCreator", taskCreator,
-                "taskUrl", taskUrl
-            );
-            taskFlowManager.notifyResponsibleUser(doc.getDocumentReference(), user, "assigned", taskEventParams);
+        if (users.isEmpty()) {
+            return;
         }
+        String taskUrl =
+            synchronization.getDocument().getExternalURL("view", synchronization.getContext()) + "#" + rid;
+        Map<String, String> taskEventParams = Map.of(
+            "taskContent", taskContent,
+            "taskCreator", taskCreator,
+            "taskUrl", taskUrl
+        );
+        // A single event targets all the responsible users, fired off the save thread once the document is saved.
+        Set<String> target = users.stream().map(serializer::serialize).collect(Collectors.toSet());
+        synchronization.addNotification(new TaskFlowAssignedEvent(target, taskEventParams));
     }
 }
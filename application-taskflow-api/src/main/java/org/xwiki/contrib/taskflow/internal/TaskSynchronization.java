@@ -0,0 +1,168 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.eventstream.RecordableEvent;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * State of the synchronization of the task objects of a document with its checktask macros, shared by all the macros
+ * of the document. The task objects are indexed by RID once, so that each macro finds its object in constant time
+ * whatever the number of tasks of the document.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskSynchronization
+{
+    private static final String RID = "rid";
+
+    private final XWikiDocument document;
+
+    private final DocumentReference taskClassReference;
+
+    private final SimpleDateFormat dateFormat;
+
+    private final XWikiContext context;
+
+    private final Map<String, BaseObject> taskObjects = new HashMap<>();
+
+    private final Set<String> foundRids = new HashSet<>();
+
+    private final List<RecordableEvent> notifications = new ArrayList<>();
+
+    private int createdCount;
+
+    /**
+     * @param document the document whose tasks are synchronized
+     * @param taskClassReference the reference of the task class
+     * @param dateFormat the date format used to parse the due dates of the macros
+     * @param context the current XWiki context
+     */
+    public TaskSynchronization(XWikiDocument document, DocumentReference taskClassReference,
+        SimpleDateFormat dateFormat, XWikiContext context)
+    {
+        this.document = document;
+        this.taskClassReference = taskClassReference;
+        this.dateFormat = dateFormat;
+        this.context = context;
+        for (BaseObject taskObject : document.getXObjects(taskClassReference)) {
+            if (taskObject != null) {
+                // Like XWikiDocument#getXObject(reference, key, value), the first object with a given RID wins.
+                this.taskObjects.putIfAbsent(taskObject.getStringValue(RID), taskObject);
+            }
+        }
+    }
+
+    /**
+     * @return the document whose tasks are synchronized
+     */
+    public XWikiDocument getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * @return the reference of the task class
+     */
+    public DocumentReference getTaskClassReference()
+    {
+        return this.taskClassReference;
+    }
+
+    /**
+     * @return the date format used to parse the due dates of the macros
+     */
+    public SimpleDateFormat getDateFormat()
+    {
+        return this.dateFormat;
+    }
+
+    /**
+     * @return the current XWiki context
+     */
+    public XWikiContext getContext()
+    {
+        return this.context;
+    }
+
+    /**
+     * @param rid the identifier of a task
+     * @return the task object with the given identifier, {@code null} if there is none
+     */
+    public BaseObject getTaskObject(String rid)
+    {
+        return this.taskObjects.get(rid);
+    }
+
+    /**
+     * @param rid the identifier of the task
+     * @param taskObject the task object created for the task
+     */
+    public void addTaskObject(String rid, BaseObject taskObject)
+    {
+        this.taskObjects.put(rid, taskObject);
+        this.createdCount++;
+    }
+
+    /**
+     * @return the number of task objects created so far
+     */
+    public int getCreatedCount()
+    {
+        return this.createdCount;
+    }
+
+    /**
+     * @return the identifiers of the tasks found in the macros so far
+     */
+    public Set<String> getFoundRids()
+    {
+        return this.foundRids;
+    }
+
+    /**
+     * @param notification a notification to send once the document is saved
+     */
+    public void addNotification(RecordableEvent notification)
+    {
+        this.notifications.add(notification);
+    }
+
+    /**
+     * @return the notifications to send once the document is saved
+     */
+    public List<RecordableEvent> getNotifications()
+    {
+        return this.notifications;
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.internal.TaskDueEntry;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * In-memory index of the open tasks sorted by due date, kept per wiki.
+ * <p>
+ * The index of a wiki is built from a single projection query the first time it is needed and is then kept up to date
+ * by the task flow listener each time a document is saved or deleted, so that selecting the tasks to remind is a
+ * range lookup that does not hit the database. Since all the reminders of a task are due before the task itself, the
+ * tasks already due are left out of the index and evicted from it once their due date has passed. The tasks are also
+ * indexed per responsible user, so that the reminders can be selected one user at a time.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskDueDateIndex.class)
+@Singleton
+public class TaskDueDateIndex
+{
+    private static final String TASK_CLASS_NAME = "Macros.CheckboxedTask.Code.TaskClass";
+
+    private static final LocalDocumentReference TASK_CLASS_REFERENCE =
+        new LocalDocumentReference(List.of("Macros", "CheckboxedTask", "Code"), "TaskClass");
+
+    private static final String USERS_SEPARATOR = ",";
+
+    private static final String REMINDER_TIMES_SEPARATOR = "[|,]";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private TaskFlowMetrics metrics;
+
+    private final Map<String, WikiIndex> wikiIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the open tasks of the current wiki whose due date is in the given range.
+     *
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, exclusive
+     * @return the tasks due in the given range, sorted by due date
+     * @throws QueryException if the index of the current wiki needs to be built and the query fails
+     */
+    public List<TaskDueEntry> getDueTasks(Date start, Date end) throws QueryException
+    {
+        WikiIndex wikiIndex = getWikiIndex(xcontextProvider.get().getWikiId());
+        wikiIndex.evict(System.currentTimeMillis());
+        return new ArrayList<>(wikiIndex.entries
+            .subMap(new IndexKey(start.getTime(), "", ""), true, new IndexKey(end.getTime(), "", ""), false)
+            .values());
+    }
+
+    /**
+     * Pushes the open tasks of the current wiki whose due date is in the given range to the given consumer, one user
+     * at a time and in user order. The tasks of each user are read from the entries of that user in the index, so
+     * that only the tasks of one user are copied at a time and no sort is needed, however many users there are.
+     *
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, exclusive
+     * @param consumer called once per user responsible for at least one task due in the range, with these tasks sorted
+     *     by due date
+     * @throws QueryException if the index of the current wiki needs to be built and the query fails
+     */
+    public void streamDueTasksByUser(Date start, Date end, BiConsumer<DocumentReference, List<TaskDueEntry>> consumer)
+        throws QueryException
+    {
+        WikiIndex wikiIndex = getWikiIndex(xcontextProvider.get().getWikiId());
+        wikiIndex.evict(System.currentTimeMillis());
+        IndexKey startKey = new IndexKey(start.getTime(), "", "");
+        IndexKey endKey = new IndexKey(end.getTime(), "", "");
+        for (Map.Entry<DocumentReference, NavigableMap<IndexKey, TaskDueEntry>> userEntries
+            : wikiIndex.userEntries.entrySet())
+        {
+            Collection<TaskDueEntry> dueEntries = userEntries.getValue().subMap(startKey, true, endKey, false).values();
+            if (!dueEntries.isEmpty()) {
+                consumer.accept(userEntries.getKey(), new ArrayList<>(dueEntries));
+            }
+        }
+    }
+
+    /**
+     * Re-indexes the tasks of the given document. The index of the document's wiki is left untouched if it is not
+     * built yet, since it will read the saved document when it is.
+     *
+     * @param document the document that was saved
+     * @return the open tasks of the document, or {@code null} if the document is a translation, which holds no tasks
+     */
+    public List<TaskDueEntry> updateDocument(XWikiDocument document)
+    {
+        // Task objects are stored on the default locale of the document only.
+        if (!Locale.ROOT.equals(document.getLocale())) {
+            return null;
+        }
+        DocumentReference documentReference = document.getDocumentReference().withoutLocale();
+        List<TaskDueEntry> dueEntries = getDueEntries(document, documentReference);
+        WikiIndex wikiIndex = this.wikiIndexes.get(documentReference.getWikiReference().getName());
+        if (wikiIndex != null) {
+            wikiIndex.put(documentReference, dueEntries);
+        }
+        return dueEntries;
+    }
+
+    /**
+     * Removes the tasks of the given document from the index.
+     *
+     * @param document the document that was deleted
+     * @return {@code false} if the document is a translation, whose deletion leaves the tasks of the document in place
+     */
+    public boolean removeDocument(XWikiDocument document)
+    {
+        // Deleting a translation doesn't delete the task objects of the default locale.
+        if (!Locale.ROOT.equals(document.getLocale())) {
+            return false;
+        }
+        DocumentReference reference = document.getDocumentReference().withoutLocale();
+        WikiIndex wikiIndex = this.wikiIndexes.get(reference.getWikiReference().getName());
+        if (wikiIndex != null) {
+            wikiIndex.put(reference, Collections.emptyList());
+        }
+        return true;
+    }
+
+    /**
+     * Drops the index of the given wiki, e.g. when the wiki is deleted. It will be rebuilt the next time it is needed.
+     *
+     * @param wikiId the identifier of the wiki
+     */
+    public void invalidate(String wikiId)
+    {
+        this.wikiIndexes.remove(wikiId);
+    }
+
+    private WikiIndex getWikiIndex(String wikiId) throws QueryException
+    {
+        WikiIndex wikiIndex = this.wikiIndexes.computeIfAbsent(wikiId, k -> new WikiIndex());
+        if (!wikiIndex.loaded) {
+            // Use a dedicated lock so that saved documents can still be indexed while the query runs.
+            synchronized (wikiIndex.loadLock) {
+                if (!wikiIndex.loaded) {
+                    load(wikiId, wikiIndex);
+                }
+            }
+        }
+        return wikiIndex;
+    }
+
+    private void load(String wikiId, WikiIndex wikiIndex) throws QueryException
+    {
+        long startTime = System.currentTimeMillis();
+        String statement = String.format("select doc.fullName, task.rid, task.dueDate, task.responsible, "
+            + "task.reminderTimes, task.task, task.creator, doc.title from Document doc, doc.object(%s) as task "
+            + "where task.dueDate >= :now and task.done <> 1", TASK_CLASS_NAME);
+        Query query = this.queryManager.createQuery(statement, Query.XWQL);
+        query.setWiki(wikiId);
+        query.bindValue("now", new Date());
+        this.metrics.recordReminderQuery();
+
+        WikiReference wikiReference = new WikiReference(wikiId);
+        Map<DocumentReference, List<TaskDueEntry>> entriesByDocument = new HashMap<>();
+        for (Object[] row : query.<Object[]>execute()) {
+            String usernames = (String) row[3];
+            if (StringUtils.isBlank(usernames) || row[2] == null) {
+                continue;
+            }
+            DocumentReference documentReference = this.resolver.resolve((String) row[0], wikiReference);
+            entriesByDocument.computeIfAbsent(documentReference, k -> new ArrayList<>())
+                .add(new TaskDueEntry(documentReference, (String) row[1], (Date) row[2],
+                    parseUsers(usernames, wikiReference), parseReminderTimes((String) row[4]), (String) row[5],
+                    (String) row[6], (String) row[7]));
+        }
+
+        wikiIndex.putLoaded(entriesByDocument);
+
+        this.logger.debug("Built the due date index of wiki [{}] with [{}] tasks in [{}] ms.", wikiId,
+            wikiIndex.entries.size(), System.currentTimeMillis() - startTime);
+    }
+
+    private List<TaskDueEntry> getDueEntries(XWikiDocument document, DocumentReference documentReference)
+    {
+        List<TaskDueEntry> dueEntries = new ArrayList<>();
+        WikiReference wikiReference = documentReference.getWikiReference();
+        DocumentReference taskClassRef = new DocumentReference(TASK_CLASS_REFERENCE, wikiReference);
+        for (BaseObject taskObj : document.getXObjects(taskClassRef)) {
+            if (taskObj == null || taskObj.getIntValue("done") == 1) {
+                continue;
+            }
+            String usernames = taskObj.getLargeStringValue("responsible");
+            Date dueDate = taskObj.getDateValue("dueDate");
+            if (StringUtils.isBlank(usernames) || dueDate == null) {
+                continue;
+            }
+            List<String> reminderTimes = taskObj.getListValue("reminderTimes");
+            dueEntries.add(new TaskDueEntry(documentReference, taskObj.getStringValue("rid"), dueDate,
+                parseUsers(usernames, wikiReference), new ArrayList<>(reminderTimes), taskObj.getStringValue("task"),
+                taskObj.getStringValue("creator"), document.getTitle()));
+        }
+        return dueEntries;
+    }
+
+    private List<DocumentReference> parseUsers(String usernames, WikiReference wikiReference)
+    {
+        return Arrays.stream(usernames.split(USERS_SEPARATOR))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .map(username -> this.resolver.resolve(username, wikiReference))
+            .collect(Collectors.toList());
+    }
+
+    private List<String> parseReminderTimes(String reminderTimes)
+    {
+        if (StringUtils.isBlank(reminderTimes)) {
+            return Collections.emptyList();
+        }
+        // Static list values are stored joined by the list separator.
+        return Arrays.stream(reminderTimes.split(REMINDER_TIMES_SEPARATOR))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * The index of a single wiki.
+     */
+    private static final class WikiIndex
+    {
+        private final NavigableMap<IndexKey, TaskDueEntry> entries = new ConcurrentSkipListMap<>();
+
+        private final Map<DocumentReference, List<IndexKey>> documentKeys = new ConcurrentHashMap<>();
+
+        /**
+         * The same entries, per responsible user, so that the reminders can be read one user at a time.
+         */
+        private final NavigableMap<DocumentReference, NavigableMap<IndexKey, TaskDueEntry>> userEntries =
+            new ConcurrentSkipListMap<>();
+
+        private final Set<DocumentReference> updatedWhileLoading = new HashSet<>();
+
+        private final Object loadLock = new Object();
+
+        private volatile boolean loaded;
+
+        synchronized void put(DocumentReference documentReference, List<TaskDueEntry> dueEntries)
+        {
+            if (!this.loaded) {
+                this.updatedWhileLoading.add(documentReference);
+            }
+            replace(documentReference, dueEntries);
+        }
+
+        /**
+         * Applies the entries read by the loading query and marks the index as loaded. The documents saved while the
+         * query was running are already up to date and are skipped: this is done under the lock taken by
+         * {@link #put(DocumentReference, List)}, so that a save can't be overwritten by the older query results.
+         */
+        synchronized void putLoaded(Map<DocumentReference, List<TaskDueEntry>> entriesByDocument)
+        {
+            for (Map.Entry<DocumentReference, List<TaskDueEntry>> entry : entriesByDocument.entrySet()) {
+                if (!this.updatedWhileLoading.contains(entry.getKey())) {
+                    replace(entry.getKey(), entry.getValue());
+                }
+            }
+            this.updatedWhileLoading.clear();
+            this.loaded = true;
+        }
+
+        /**
+         * Evicts the tasks due before the given time, whose reminders have all passed.
+         *
+         * @param time the time before which the tasks are evicted
+         */
+        synchronized void evict(long time)
+        {
+            NavigableMap<IndexKey, TaskDueEntry> dueEntries = this.entries.headMap(new IndexKey(time, "", ""), false);
+            for (Map.Entry<IndexKey, TaskDueEntry> dueEntry : new ArrayList<>(dueEntries.entrySet())) {
+                this.documentKeys.computeIfPresent(dueEntry.getValue().getDocumentReference(), (reference, keys) -> {
+                    List<IndexKey> remainingKeys =
+                        keys.stream().filter(key -> key.dueTime >= time).collect(Collectors.toList());
+                    return remainingKeys.isEmpty() ? null : remainingKeys;
+                });
+                remove(dueEntry.getKey());
+            }
+        }
+
+        private void replace(DocumentReference documentReference, List<TaskDueEntry> dueEntries)
+        {
+            List<IndexKey> previousKeys = this.documentKeys.remove(documentReference);
+            if (previousKeys != null) {
+                previousKeys.forEach(this::remove);
+            }
+            long now = System.currentTimeMillis();
+            List<IndexKey> keys = new ArrayList<>(dueEntries.size());
+            String document = documentReference.toString();
+            for (TaskDueEntry dueEntry : dueEntries) {
+                // The tasks already due have no reminder left to send.
+                if (dueEntry.getDueDate().getTime() >= now) {
+                    IndexKey key = new IndexKey(dueEntry.getDueDate().getTime(), document, dueEntry.getRid());
+                    add(key, dueEntry);
+                    keys.add(key);
+                }
+            }
+            if (!keys.isEmpty()) {
+                this.documentKeys.put(documentReference, keys);
+            }
+        }
+
+        private void add(IndexKey key, TaskDueEntry dueEntry)
+        {
+            this.entries.put(key, dueEntry);
+            for (DocumentReference userReference : dueEntry.getResponsible()) {
+                this.userEntries.computeIfAbsent(userReference, k -> new ConcurrentSkipListMap<>()).put(key, dueEntry);
+            }
+        }
+
+        private void remove(IndexKey key)
+        {
+            TaskDueEntry dueEntry = this.entries.remove(key);
+            if (dueEntry != null) {
+                // The entries are only written under the lock of the wiki index, so an emptied user map can be dropped.
+                for (DocumentReference userReference : dueEntry.getResponsible()) {
+                    this.userEntries.computeIfPresent(userReference, (reference, dueEntries) -> {
+                        dueEntries.remove(key);
+                        return dueEntries.isEmpty() ? null : dueEntries;
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort key of the index: due date first, then document and task identifier to keep the keys unique.
+     */
+    private static final class IndexKey implements Comparable<IndexKey>
+    {
+        private final long dueTime;
+
+        private final String document;
+
+        private final String rid;
+
+        IndexKey(long dueTime, String document, String rid)
+        {
+            this.dueTime = dueTime;
+            this.document = document;
+            this.rid = Objects.toString(rid, "");
+        }
+
+        @Override
+        public int compareTo(IndexKey other)
+        {
+            int result = Long.compare(this.dueTime, other.dueTime);
+            if (result == 0) {
+                result = this.document.compareTo(other.document);
+            }
+            if (result == 0) {
+                result = this.rid.compareTo(other.rid);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object object)
+        {
+            return object instanceof IndexKey && compareTo((IndexKey) object) == 0;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(this.dueTime, this.document, this.rid);
+        }
+    }
+}
@@ -19,15 +19,6 @@
  */
 package org.xwiki.contrib.taskflow.internal.job;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import com.xpn.xwiki.XWiki;
-import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.scheduler.AbstractJob;
 import com.xpn.xwiki.web.Utils;
 
@@ -36,14 +27,18 @@ import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xwiki.contrib.taskflow.TaskFlowManager;
-import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.contrib.taskflow.internal.reminder.TaskReminderRunner;
 
 /**
- * /** Scheduled job that alerts responsible users about their pending tasks.
+ * Scheduled job that alerts responsible users about their pending tasks.
  * <p>
  * This job runs every hour to ensure timely notifications are sent based on each task's configured reminder intervals.
  * Supported intervals include: 1 hour, 2 hours, 4 hours, 8 hours, 12 hours, 1 day, 2 days, and 5 days.
+ * <p>
+ * The job of the main wiki processes all the wikis of the farm in parallel, see {@link TaskReminderRunner}.
+ * <p>
+ * When the reminder timing wheel is enabled ({@code taskflow.reminders.timingWheel=true} in {@code xwiki.properties}),
+ * the reminders are fired at the exact minute by the wheel and this job only acts as a safety sweep re-arming it.
  *
  * <p>
  * Note that the "Job execution context user" property of this scheduler JOB is set to XWiki.XWikiGuest This done on
@@ -60,48 +55,9 @@ public class TaskFlowReminderSchedulerJob extends AbstractJob implements Job
     @Override
     protected void executeJob(JobExecutionContext jobContext) throws JobExecutionException
     {
-        XWikiContext context = getXWikiContext();
-        XWiki xwiki = context.getWiki();
-
-        DocumentReference taskClassRef =
-            new DocumentReference(context.getWikiId(), List.of("Macros", "CheckboxedTask", "Code"), "TaskClass");
         Logger logger = LoggerFactory.getLogger(TaskFlowReminderSchedulerJob.class);
-        TaskFlowManager taskFlowManager = Utils.getComponent(TaskFlowManager.class);
         logger.debug("Task Reminder Scheduler Job started ...");
-        // interval → user → document → list of task IDs
-        Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> tasksToRemindMap =
-            taskFlowManager.getTasksToRemind();
-        // Send one notification/email per event interval → user → document → list of task IDs.
-        for (Map.Entry<String, Map<DocumentReference,
-            Map<DocumentReference, List<String>>>> tasksToRemindEntry : tasksToRemindMap.entrySet()) {
-            Map<DocumentReference, Map<DocumentReference, List<String>>> taskUserMap = tasksToRemindEntry.getValue();
-            for (Map.Entry<DocumentReference,
-                Map<DocumentReference, List<String>>> taskUserEntry : taskUserMap.entrySet()) {
-                DocumentReference userRef = taskUserEntry.getKey();
-                Map<DocumentReference, List<String>> taskRefMap = taskUserEntry.getValue();
-                for (Map.Entry<DocumentReference, List<String>> taskRefEntry : taskRefMap.entrySet()) {
-                    DocumentReference taskRef = taskRefEntry.getKey();
-                    try {
-                        XWikiDocument taskDoc = xwiki.getDocument(taskRef, context);
-                        List<String> taskRids = taskRefEntry.getValue();
-                        for (String taskRid : taskRids) {
-                            BaseObject taskObj = taskDoc.getXObject(taskClassRef, "rid", taskRid);
-                            String taskUrl = taskDoc.getExternalURL("view", context) + "#" + taskRid;
-                            Map<String, String> taskEventParams = new HashMap<>();
-                            taskEventParams.put("taskContent", taskObj.getStringValue("task"));
-                            taskEventParams.put("taskCreator", taskObj.getStringValue("creator"));
-                            taskEventParams.put("taskUrl", taskUrl);
-                            taskEventParams.put("taskDueDate", xwiki.formatDate(taskObj.getDateValue("dueDate"),
-                                "yyyy/MM/dd HH:mm", context));
-
-                            taskFlowManager.notifyResponsibleUser(taskRef, userRef, "expiring", taskEventParams);
-                        }
-                    } catch (XWikiException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }
-        }
+        Utils.getComponent(TaskReminderRunner.class).run();
         logger.debug("Task Reminder Scheduler Job finished ...");
     }
 }
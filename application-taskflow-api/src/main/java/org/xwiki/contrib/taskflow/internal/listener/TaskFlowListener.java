@@ -21,8 +21,11 @@ package org.xwiki.contrib.taskflow.internal.listener;
 
 import java.io.StringReader;
 import java.text.SimpleDateFormat;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.inject.Inject;
@@ -30,10 +33,27 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
+import org.xwiki.bridge.event.ActionExecutedEvent;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentCreatingEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.bridge.event.DocumentUpdatingEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.internal.CheckTaskScanner;
+import org.xwiki.contrib.taskflow.internal.TaskDueEntry;
 import org.xwiki.contrib.taskflow.internal.TaskMacroProcessor;
+import org.xwiki.contrib.taskflow.internal.TaskSynchronization;
+import org.xwiki.contrib.taskflow.internal.index.TaskDueDateIndex;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.contrib.taskflow.internal.notification.TaskFlowNotificationDispatcher;
+import org.xwiki.contrib.taskflow.internal.reminder.TaskReminderTimingWheel;
+import org.xwiki.contrib.taskflow.internal.status.TaskStatusService;
+import org.xwiki.contrib.taskflow.internal.store.TaskAssignmentStore;
+import org.xwiki.contrib.taskflow.internal.store.TaskCountCache;
+import org.xwiki.contrib.taskflow.internal.store.UserTaskCache;
+import org.xwiki.eventstream.RecordableEvent;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.observation.EventListener;
@@ -52,7 +72,13 @@ import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
- * Listens to document creating and updating events to add task objects to XWiki documents.
+ * Listens to document creating and updating events to add task objects to XWiki documents, and to document saved
+ * and deleted events, as well as wiki deleted events, to keep the task due date index and the user task cache up to
+ * date. The end of each action ends the saves that it began and that failed, see {@link TaskStatusService#endSaves()}.
+ * <p>
+ * The notifications of the tasks created by a save are only queued once the document is saved: they are kept in the
+ * context of the save until then, so that the notifications of a failed save are dropped along with its request, or
+ * by the next save of the same document in that request.
  *
  * @version $Id$
  * @since 2.0
@@ -66,7 +92,11 @@ public class TaskFlowListener implements EventListener
 
     private static final String RID = "rid";
 
-    private static final List<Event> EVENTS = List.of(new DocumentCreatingEvent(), new DocumentUpdatingEvent());
+    private static final String PENDING_NOTIFICATIONS_KEY = "taskflow.pendingNotifications";
+
+    private static final List<Event> EVENTS = List.of(new DocumentCreatingEvent(), new DocumentUpdatingEvent(),
+        new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent(), new WikiDeletedEvent(),
+        new ActionExecutedEvent());
 
     @Inject
     @Named("current")
@@ -86,6 +116,33 @@ public class TaskFlowListener implements EventListener
     @Inject
     private TaskMacroProcessor macroProcessor;
 
+    @Inject
+    private CheckTaskScanner checkTaskScanner;
+
+    @Inject
+    private TaskAssignmentStore assignmentStore;
+
+    @Inject
+    private TaskDueDateIndex dueDateIndex;
+
+    @Inject
+    private UserTaskCache userTaskCache;
+
+    @Inject
+    private TaskCountCache taskCountCache;
+
+    @Inject
+    private TaskReminderTimingWheel timingWheel;
+
+    @Inject
+    private TaskStatusService statusService;
+
+    @Inject
+    private TaskFlowMetrics metrics;
+
+    @Inject
+    private TaskFlowNotificationDispatcher notificationDispatcher;
+
     @Override
     public List<Event> getEvents()
     {
@@ -101,74 +158,206 @@ public class TaskFlowListener implements EventListener
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
+        if (event instanceof WikiDeletedEvent) {
+            dueDateIndex.invalidate(((WikiDeletedEvent) event).getWikiId());
+            return;
+        } else if (event instanceof ActionExecutedEvent) {
+            // The request is over: the saves it began and didn't end have failed.
+            statusService.endSaves();
+            return;
+        }
+
         XWikiDocument currentDoc = (XWikiDocument) source;
+        XWikiContext context = (XWikiContext) data;
+        long startTime = System.nanoTime();
+        if (event instanceof DocumentDeletedEvent || event instanceof DocumentCreatedEvent
+            || event instanceof DocumentUpdatedEvent)
+        {
+            try {
+                onDocumentSaved(event, currentDoc, context);
+            } finally {
+                metrics.recordAfterSave(startTime);
+            }
+        } else {
+            try {
+                onDocumentSaving(event, currentDoc, context);
+            } finally {
+                metrics.recordBeforeSave(startTime);
+            }
+        }
+    }
+
+    /**
+     * Keeps the task caches, the due date index and the armed reminders in sync once the changes are actually saved.
+     */
+    private void onDocumentSaved(Event event, XWikiDocument currentDoc, XWikiContext context)
+    {
+        if (event instanceof DocumentDeletedEvent) {
+            userTaskCache.invalidate(currentDoc);
+            taskCountCache.invalidate(currentDoc);
+            if (dueDateIndex.removeDocument(currentDoc)) {
+                timingWheel.arm(currentDoc.getDocumentReference().withoutLocale(), Collections.emptyList());
+            }
+            return;
+        }
+        if (event instanceof DocumentUpdatedEvent) {
+            statusService.endSave(currentDoc);
+        }
+        dispatchNotifications(currentDoc.getDocumentReference(), context);
+        userTaskCache.invalidate(currentDoc);
+        taskCountCache.invalidate(currentDoc);
+        List<TaskDueEntry> dueEntries = dueDateIndex.updateDocument(currentDoc);
+        if (dueEntries != null) {
+            timingWheel.arm(currentDoc.getDocumentReference().withoutLocale(), dueEntries);
+        }
+    }
 
+    /**
+     * Synchronizes the task objects of the document about to be saved with its checktask macros.
+     */
+    private void onDocumentSaving(Event event, XWikiDocument currentDoc, XWikiContext context)
+    {
         if (currentDoc.getDocumentReference().equals(resolver.resolve("Macros.CheckboxedTask.WebHome"))) {
             return;
         }
 
+        // Drop the notifications of a previous save of the document that failed.
+        getPendingNotifications(context).remove(currentDoc.getDocumentReference());
+
+        // Don't revert the tasks toggled since the saved copy of the document was taken, nor while it is stored.
+        if (event instanceof DocumentUpdatingEvent) {
+            try {
+                statusService.beginSave(currentDoc);
+            } catch (Exception e) {
+                logger.error("Failed to merge the task statuses of [{}]", currentDoc.getDocumentReference(), e);
+            }
+        }
+
         // If it’s an update but the content has not changed (e.g. metadata edit, comment added), skip parsing entirely.
         if (!currentDoc.isContentDirty()) {
             return;
         }
 
-        XWikiContext context = (XWikiContext) data;
         DocumentReference taskClassRef = resolver.resolve("Macros.CheckboxedTask.Code.TaskClass");
 
         String content = currentDoc.getContent().trim();
 
+        long startTime = System.nanoTime();
         try {
+            int taskCount = 0;
+            int createdCount = 0;
+            int removedCount = 0;
             if (!content.contains("{{checktask")) {
                 // No checktask macros at all, just clean objects if any exist
                 if (!currentDoc.getXObjects(taskClassRef).isEmpty()) {
-                    removeAllTasks(currentDoc, taskClassRef);
+                    removedCount = removeAllTasks(currentDoc, taskClassRef);
                 }
             } else {
-                synchronizeTasks(currentDoc, taskClassRef, context);
+                String dateFormat = context.getWiki().getXWikiPreference("dateformat", "yyyy/MM/dd HH:mm", context);
+                TaskSynchronization synchronization =
+                    new TaskSynchronization(currentDoc, taskClassRef, new SimpleDateFormat(dateFormat), context);
+                removedCount = synchronizeTasks(synchronization);
+                taskCount = synchronization.getFoundRids().size();
+                createdCount = synchronization.getCreatedCount();
+                if (!synchronization.getNotifications().isEmpty()) {
+                    getPendingNotifications(context).put(currentDoc.getDocumentReference(),
+                        synchronization.getNotifications());
+                }
             }
+            assignmentStore.synchronize(currentDoc, context);
+            metrics.recordSynchronization(startTime, taskCount, createdCount, removedCount);
         } catch (Exception e) {
             logger.error("Failed to synchronize tasks for [{}]", currentDoc.getDocumentReference(), e);
         }
     }
 
-    private void synchronizeTasks(XWikiDocument doc, DocumentReference taskClassRef,
-        XWikiContext context) throws Exception
+    @SuppressWarnings("unchecked")
+    private Map<DocumentReference, List<RecordableEvent>> getPendingNotifications(XWikiContext context)
     {
+        return (Map<DocumentReference, List<RecordableEvent>>) context.computeIfAbsent(PENDING_NOTIFICATIONS_KEY,
+            k -> new HashMap<DocumentReference, List<RecordableEvent>>());
+    }
+
+    private void dispatchNotifications(DocumentReference documentReference, XWikiContext context)
+    {
+        List<RecordableEvent> notifications = getPendingNotifications(context).remove(documentReference);
+        if (notifications != null) {
+            for (RecordableEvent notification : notifications) {
+                notificationDispatcher.dispatch(notification, documentReference);
+            }
+        }
+    }
+
+    /**
+     * @return the number of removed task objects
+     */
+    private int synchronizeTasks(TaskSynchronization synchronization) throws Exception
+    {
+        XWikiDocument doc = synchronization.getDocument();
         String content = doc.getContent();
-        XDOM xdom = parser.parse(new StringReader(content));
-        List<MacroBlock> macros = xdom.getBlocks(new MacroBlockMatcher("checktask"), Block.Axes.DESCENDANT);
+        List<CheckTaskScanner.Macro> scannedMacros = checkTaskScanner.scan(content);
+        if (scannedMacros == null) {
+            return synchronizeParsedTasks(synchronization);
+        }
 
-        Set<String> foundRids = new HashSet<>();
-        String dateFormat = context.getWiki().getXWikiPreference("dateformat", "yyyy/MM/dd HH:mm", context);
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat(dateFormat);
+        Map<CheckTaskScanner.Macro, String> newRids = new LinkedHashMap<>();
+        for (CheckTaskScanner.Macro macro : scannedMacros) {
+            String rid = macroProcessor.processTask(macro.getParameters(), macro.getContent(), synchronization);
+            if (!macro.hasRid()) {
+                newRids.put(macro, rid);
+            }
+        }
+        int removedCount =
+            removeStaleTasks(doc, synchronization.getTaskClassReference(), synchronization.getFoundRids());
+
+        // Only touch the content when a macro was given a rid, inserting it in place.
+        if (!newRids.isEmpty()) {
+            doc.setContent(checkTaskScanner.insertRids(content, newRids));
+        }
+        return removedCount;
+    }
+
+    private int synchronizeParsedTasks(TaskSynchronization synchronization) throws Exception
+    {
+        XWikiDocument doc = synchronization.getDocument();
+        XDOM xdom = parser.parse(new StringReader(doc.getContent()));
+        List<MacroBlock> macros = xdom.getBlocks(new MacroBlockMatcher("checktask"), Block.Axes.DESCENDANT);
 
         for (MacroBlock macro : macros) {
-            macroProcessor.processMacro(macro, doc, taskClassRef, foundRids, simpleDateFormat, context);
+            macroProcessor.processMacro(macro, synchronization);
         }
-        removeStaleTasks(doc, taskClassRef, foundRids);
+        int removedCount =
+            removeStaleTasks(doc, synchronization.getTaskClassReference(), synchronization.getFoundRids());
 
         // Re-serialize the XDOM back to wiki syntax to update macros content with rid.
         WikiPrinter wikiPrinter = new DefaultWikiPrinter();
         blockRenderer.render(xdom, wikiPrinter);
         doc.setContent(wikiPrinter.toString());
+        return removedCount;
     }
 
-    private void removeAllTasks(XWikiDocument doc, DocumentReference taskClassRef)
+    private int removeAllTasks(XWikiDocument doc, DocumentReference taskClassRef)
     {
+        int removedCount = 0;
         for (BaseObject obj : doc.getXObjects(taskClassRef)) {
-            doc.removeXObject(obj);
+            if (doc.removeXObject(obj)) {
+                removedCount++;
+            }
         }
+        return removedCount;
     }
 
-    private void removeStaleTasks(XWikiDocument doc, DocumentReference taskClassRef, Set<String> validRids)
+    private int removeStaleTasks(XWikiDocument doc, DocumentReference taskClassRef, Set<String> validRids)
     {
+        int removedCount = 0;
         for (BaseObject obj : doc.getXObjects(taskClassRef)) {
             if (obj != null) {
                 String rid = obj.getStringValue(RID);
-                if (rid == null || !validRids.contains(rid)) {
-                    doc.removeXObject(obj);
+                if ((rid == null || !validRids.contains(rid)) && doc.removeXObject(obj)) {
+                    removedCount++;
                 }
             }
         }
+        return removedCount;
     }
 }
@@ -0,0 +1,322 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.taskflow.internal.notification.TaskFlowNotificationDispatcher;
+import org.xwiki.management.JMXBeanRegistration;
+
+/**
+ * Collects the operational metrics of the task synchronization, of the reminders and of the notifications, and exposes
+ * them over JMX.
+ * <p>
+ * The metrics are updated by the measured components with lock-free counters, so that measuring adds no contention.
+ * The notification metrics are the ones kept by the {@link TaskFlowNotificationDispatcher}.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskFlowMetrics.class)
+@Singleton
+public class TaskFlowMetrics implements TaskFlowMetricsMXBean, Initializable, Disposable
+{
+    private static final String MBEAN_NAME = "type=TaskFlow";
+
+    /**
+     * The upper bounds of the buckets of the tasks per page histogram, the last bucket holding the larger pages.
+     */
+    private static final int[] TASKS_PER_PAGE_BOUNDS = {0, 1, 10, 100, 1000};
+
+    @Inject
+    private JMXBeanRegistration jmxRegistration;
+
+    @Inject
+    private Provider<TaskFlowNotificationDispatcher> notificationDispatcherProvider;
+
+    private final Timer synchronization = new Timer();
+
+    private final Timer beforeSave = new Timer();
+
+    private final Timer afterSave = new Timer();
+
+    private final Timer reminderRun = new Timer();
+
+    private final LongAdder reminderQueries = new LongAdder();
+
+    private final Timer reminderSelection = new Timer();
+
+    private final Timer reminderDispatch = new Timer();
+
+    private final LongAdder tasksCreated = new LongAdder();
+
+    private final LongAdder tasksRemoved = new LongAdder();
+
+    private final LongAdder tasksReminded = new LongAdder();
+
+    private final LongAdder[] tasksPerPage = createBuckets();
+
+    /**
+     * Measures the durations of an operation.
+     */
+    private static final class Timer
+    {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos)
+        {
+            this.count.increment();
+            this.totalNanos.add(nanos);
+            this.maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        TimerStatistics getStatistics()
+        {
+            return new TimerStatistics(this.count.sum(), this.totalNanos.sum(), this.maxNanos.get());
+        }
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.jmxRegistration.registerMBean(this, MBEAN_NAME);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.jmxRegistration.unregisterMBean(MBEAN_NAME);
+    }
+
+    /**
+     * Records the synchronization of the tasks of a saved page.
+     *
+     * @param startTime the {@link System#nanoTime()} when the synchronization started
+     * @param taskCount the number of tasks of the page
+     * @param createdCount the number of task objects created
+     * @param removedCount the number of task objects removed
+     */
+    public void recordSynchronization(long startTime, int taskCount, int createdCount, int removedCount)
+    {
+        this.synchronization.record(System.nanoTime() - startTime);
+        this.tasksCreated.add(createdCount);
+        this.tasksRemoved.add(removedCount);
+        int bucket = 0;
+        while (bucket < TASKS_PER_PAGE_BOUNDS.length && taskCount > TASKS_PER_PAGE_BOUNDS[bucket]) {
+            bucket++;
+        }
+        this.tasksPerPage[bucket].increment();
+    }
+
+    /**
+     * Records the processing of a page by the task flow listener before it is stored, synchronization included.
+     *
+     * @param startTime the {@link System#nanoTime()} when the processing started
+     */
+    public void recordBeforeSave(long startTime)
+    {
+        this.beforeSave.record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Records the processing of a page by the task flow listener once it is stored or deleted.
+     *
+     * @param startTime the {@link System#nanoTime()} when the processing started
+     */
+    public void recordAfterSave(long startTime)
+    {
+        this.afterSave.record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Records a run of the task reminders, covering all the wikis it processed.
+     *
+     * @param startTime the {@link System#nanoTime()} when the run started
+     */
+    public void recordReminderRun(long startTime)
+    {
+        this.reminderRun.record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Records a database query run for the task reminders.
+     */
+    public void recordReminderQuery()
+    {
+        this.reminderQueries.increment();
+    }
+
+    /**
+     * Records the selection of the tasks to remind of a wiki.
+     *
+     * @param startTime the {@link System#nanoTime()} when the selection started
+     */
+    public void recordReminderSelection(long startTime)
+    {
+        this.reminderSelection.record(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Records the dispatch of the reminders of a user.
+     *
+     * @param startTime the {@link System#nanoTime()} when the dispatch started
+     * @param taskCount the number of tasks reminded to the user
+     */
+    public void recordReminderDispatch(long startTime, int taskCount)
+    {
+        this.reminderDispatch.record(System.nanoTime() - startTime);
+        this.tasksReminded.add(taskCount);
+    }
+
+    @Override
+    public TimerStatistics getSynchronization()
+    {
+        return this.synchronization.getStatistics();
+    }
+
+    @Override
+    public TimerStatistics getBeforeSave()
+    {
+        return this.beforeSave.getStatistics();
+    }
+
+    @Override
+    public TimerStatistics getAfterSave()
+    {
+        return this.afterSave.getStatistics();
+    }
+
+    @Override
+    public TimerStatistics getReminderRun()
+    {
+        return this.reminderRun.getStatistics();
+    }
+
+    @Override
+    public long getReminderQueries()
+    {
+        return this.reminderQueries.sum();
+    }
+
+    @Override
+    public TimerStatistics getReminderSelection()
+    {
+        return this.reminderSelection.getStatistics();
+    }
+
+    @Override
+    public TimerStatistics getReminderDispatch()
+    {
+        return this.reminderDispatch.getStatistics();
+    }
+
+    @Override
+    public long getTasksCreated()
+    {
+        return this.tasksCreated.sum();
+    }
+
+    @Override
+    public long getTasksRemoved()
+    {
+        return this.tasksRemoved.sum();
+    }
+
+    @Override
+    public long getTasksReminded()
+    {
+        return this.tasksReminded.sum();
+    }
+
+    @Override
+    public Map<String, Long> getTasksPerPage()
+    {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        int lowerBound = 0;
+        for (int i = 0; i < TASKS_PER_PAGE_BOUNDS.length; i++) {
+            int upperBound = TASKS_PER_PAGE_BOUNDS[i];
+            String label = lowerBound == upperBound ? String.valueOf(upperBound) : lowerBound + "-" + upperBound;
+            histogram.put(label, this.tasksPerPage[i].sum());
+            lowerBound = upperBound + 1;
+        }
+        histogram.put(lowerBound + "+", this.tasksPerPage[TASKS_PER_PAGE_BOUNDS.length].sum());
+        return histogram;
+    }
+
+    @Override
+    public int getNotificationQueueSize()
+    {
+        return this.notificationDispatcherProvider.get().getQueueSize();
+    }
+
+    @Override
+    public long getNotificationsDispatched()
+    {
+        return this.notificationDispatcherProvider.get().getDispatchedCount();
+    }
+
+    @Override
+    public long getNotificationsSynchronous()
+    {
+        return this.notificationDispatcherProvider.get().getSynchronousCount();
+    }
+
+    @Override
+    public long getNotificationsFailed()
+    {
+        return this.notificationDispatcherProvider.get().getFailedCount();
+    }
+
+    @Override
+    public long getNotificationAverageLatency()
+    {
+        return this.notificationDispatcherProvider.get().getAverageLatency();
+    }
+
+    @Override
+    public long getNotificationMaxLatency()
+    {
+        return this.notificationDispatcherProvider.get().getMaxLatency();
+    }
+
+    private static LongAdder[] createBuckets()
+    {
+        LongAdder[] buckets = new LongAdder[TASKS_PER_PAGE_BOUNDS.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.metrics;
+
+import java.util.Map;
+
+/**
+ * The operational metrics of the Task Flow Application, exposed over JMX as {@code org.xwiki:type=TaskFlow}. The
+ * durations are in milliseconds and all the values are counted since startup.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public interface TaskFlowMetricsMXBean
+{
+    /**
+     * @return the time spent synchronizing the task objects of the saved pages with their checktask macros, which
+     *     adds to the save latency
+     */
+    TimerStatistics getSynchronization();
+
+    /**
+     * @return the time spent by the task flow listener on each page about to be saved, before it is stored, including
+     *     the synchronization of its tasks and the merge of the task statuses changed meanwhile
+     */
+    TimerStatistics getBeforeSave();
+
+    /**
+     * @return the time spent by the task flow listener on each saved or deleted page, once it is stored: queuing the
+     *     notifications, updating the task caches and the due date index, and arming the reminders
+     */
+    TimerStatistics getAfterSave();
+
+    /**
+     * @return the time spent by each run of the task reminders, covering all the wikis it processed
+     */
+    TimerStatistics getReminderRun();
+
+    /**
+     * @return the number of database queries run for the task reminders: building the due date index of a wiki and
+     *     looking for the pages whose task assignments are missing
+     */
+    long getReminderQueries();
+
+    /**
+     * @return the time spent selecting the tasks to remind, for each wiki processed by a reminder run
+     */
+    TimerStatistics getReminderSelection();
+
+    /**
+     * @return the time spent building and queuing the reminder notifications, for each reminded user
+     */
+    TimerStatistics getReminderDispatch();
+
+    /**
+     * @return the number of task objects created for new checktask macros
+     */
+    long getTasksCreated();
+
+    /**
+     * @return the number of task objects removed along with their checktask macros
+     */
+    long getTasksRemoved();
+
+    /**
+     * @return the number of tasks reminded to their responsible users, counted once per user
+     */
+    long getTasksReminded();
+
+    /**
+     * @return the number of synchronized pages by number of tasks, e.g. {@code "11-100"} → 42
+     */
+    Map<String, Long> getTasksPerPage();
+
+    /**
+     * @return the number of notifications waiting to be fired
+     */
+    int getNotificationQueueSize();
+
+    /**
+     * @return the number of notifications fired
+     */
+    long getNotificationsDispatched();
+
+    /**
+     * @return the number of notifications fired by the caller because the queue was full
+     */
+    long getNotificationsSynchronous();
+
+    /**
+     * @return the number of notifications that could not be fired
+     */
+    long getNotificationsFailed();
+
+    /**
+     * @return the average time, in milliseconds, between queuing a notification and firing it
+     */
+    long getNotificationAverageLatency();
+
+    /**
+     * @return the longest time, in milliseconds, between queuing a notification and firing it
+     */
+    long getNotificationMaxLatency();
+}
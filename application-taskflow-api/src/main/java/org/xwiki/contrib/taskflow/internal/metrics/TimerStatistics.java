@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.metrics;
+
+/**
+ * Snapshot of the durations measured by a timer of the {@link TaskFlowMetrics}, exposed as a composite value over JMX.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TimerStatistics
+{
+    private static final double NANOS_PER_MILLI = 1_000_000D;
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    /**
+     * @param count the number of measured operations
+     * @param totalNanos the total duration of the operations, in nanoseconds
+     * @param maxNanos the duration of the longest operation, in nanoseconds
+     */
+    public TimerStatistics(long count, long totalNanos, long maxNanos)
+    {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return the number of measured operations
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the total duration of the operations, in milliseconds
+     */
+    public double getTotalTime()
+    {
+        return this.totalNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return the average duration of the operations, in milliseconds
+     */
+    public double getAverageTime()
+    {
+        return this.count > 0 ? this.totalNanos / NANOS_PER_MILLI / this.count : 0D;
+    }
+
+    /**
+     * @return the duration of the longest operation, in milliseconds
+     */
+    public double getMaxTime()
+    {
+        return this.maxNanos / NANOS_PER_MILLI;
+    }
+}
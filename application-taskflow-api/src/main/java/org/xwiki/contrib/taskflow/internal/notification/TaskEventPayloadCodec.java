@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.notification;
+
+import java.util.Collections;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.taskflow.notifications.TaskEventPayload;
+import org.xwiki.contrib.taskflow.notifications.events.AbstractTaskFlowEvent;
+import org.xwiki.contrib.taskflow.notifications.events.TaskFlowDigestEvent;
+import org.xwiki.eventstream.Event;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Writes the parameters of the task notifications as the body of their events, and reads them back when the
+ * notifications are displayed.
+ * <p>
+ * The reader and the writer are created once and shared, as they are immutable and thread-safe. The stored events
+ * don't change, so the payloads read are cached by event identifier: displaying the notification menu or sending the
+ * notification emails again doesn't parse the same bodies again.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskEventPayloadCodec.class)
+@Singleton
+public class TaskEventPayloadCodec implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 1000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ObjectWriter WRITER = MAPPER.writerFor(TaskEventPayload.class);
+
+    private static final ObjectReader READER = MAPPER.readerFor(TaskEventPayload.class);
+
+    private static final TaskEventPayload EMPTY_PAYLOAD =
+        new TaskEventPayload(Collections.emptyMap(), Collections.emptyList());
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<TaskEventPayload> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache =
+                this.cacheManager.createNewCache(new LRUCacheConfiguration("taskflow.eventpayload", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the task event payload cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param event a task notification
+     * @return the body of the event holding the parameters of the notification, {@code null} if they cannot be written
+     */
+    public String encode(AbstractTaskFlowEvent event)
+    {
+        TaskEventPayload payload = new TaskEventPayload(event.getTaskEventParams(),
+            event instanceof TaskFlowDigestEvent ? ((TaskFlowDigestEvent) event).getTasks() : Collections.emptyList());
+        try {
+            return WRITER.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            this.logger.warn("Failed to write the parameters of the task notification [{}]: [{}]",
+                event.getClass().getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param event a stored task notification event
+     * @return the parameters of the notification, empty if the event has no body or it cannot be read, so that the
+     *     templates don't have to check them
+     */
+    public TaskEventPayload decode(Event event)
+    {
+        if (StringUtils.isEmpty(event.getBody())) {
+            return EMPTY_PAYLOAD;
+        }
+        TaskEventPayload payload = event.getId() != null ? this.cache.get(event.getId()) : null;
+        if (payload == null) {
+            try {
+                payload = READER.readValue(event.getBody());
+            } catch (JsonProcessingException e) {
+                this.logger.warn("Failed to read the parameters of the task notification event [{}]: [{}]",
+                    event.getId(), e.getMessage());
+                return EMPTY_PAYLOAD;
+            }
+            if (event.getId() != null) {
+                this.cache.set(event.getId(), payload);
+            }
+        }
+        return payload;
+    }
+}
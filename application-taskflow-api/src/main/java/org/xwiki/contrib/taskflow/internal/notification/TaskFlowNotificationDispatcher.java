@@ -0,0 +1,226 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.notification;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+import org.xwiki.contrib.taskflow.internal.TaskFlowContextRunner;
+import org.xwiki.eventstream.RecordableEvent;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.ObservationManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Fires the task flow notification events from a bounded pool of worker threads, so that saving a document does not
+ * wait for the notification filters and the event store.
+ * <p>
+ * When the queue is full the event is fired synchronously by the calling thread, which slows down the producers
+ * instead of dropping notifications. The queue depth and the dispatch latency are exposed for monitoring.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskFlowNotificationDispatcher.class)
+@Singleton
+public class TaskFlowNotificationDispatcher implements Initializable, Disposable
+{
+    /**
+     * Default event source.
+     */
+    private static final String EVENT_SOURCE = "org.xwiki.contrib:application-taskFlow-api";
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private TaskFlowConfiguration configuration;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private TaskFlowContextRunner contextRunner;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+
+    private final AtomicLong synchronousCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    @Override
+    public void initialize()
+    {
+        int threads = Math.max(1, this.configuration.getNotificationThreads());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, this.configuration.getNotificationQueueSize())), runnable -> {
+                Thread thread =
+                    new Thread(runnable, "TaskFlow notification dispatcher " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                this.logger.warn("[{}] task flow notifications were not sent before shutdown.",
+                    this.executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the given event to be fired by a worker thread, in the current wiki and on behalf of the current user.
+     * <p>
+     * The document of the event is passed by reference and loaded by the worker thread, so that the worker never
+     * reads a document that is still being modified, e.g. by the thread saving it.
+     *
+     * @param event the event to fire
+     * @param documentReference the reference of the document holding the tasks, the data of the event, {@code null}
+     *     if the event is not about a single document
+     */
+    public void dispatch(RecordableEvent event, DocumentReference documentReference)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String wikiId = xcontext.getWikiId();
+        DocumentReference userReference = xcontext.getUserReference();
+        long queuedAt = System.currentTimeMillis();
+        try {
+            this.executor.execute(() -> {
+                try {
+                    this.contextRunner.run(wikiId, userReference, () -> fire(event, documentReference, queuedAt));
+                } catch (Exception e) {
+                    this.failedCount.incrementAndGet();
+                    this.logger.error("Failed to send the task flow notification [{}]", event.getClass().getName(),
+                        e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The queue is full (or the dispatcher is shutting down): apply backpressure on the caller.
+            this.synchronousCount.incrementAndGet();
+            fire(event, documentReference, queuedAt);
+        }
+    }
+
+    /**
+     * @return the number of events waiting to be fired
+     */
+    public int getQueueSize()
+    {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of events fired since startup
+     */
+    public long getDispatchedCount()
+    {
+        return this.dispatchedCount.get();
+    }
+
+    /**
+     * @return the number of events fired synchronously by the caller because the queue was full
+     */
+    public long getSynchronousCount()
+    {
+        return this.synchronousCount.get();
+    }
+
+    /**
+     * @return the number of events that could not be fired
+     */
+    public long getFailedCount()
+    {
+        return this.failedCount.get();
+    }
+
+    /**
+     * @return the average time, in milliseconds, between queuing an event and firing it
+     */
+    public long getAverageLatency()
+    {
+        long count = this.dispatchedCount.get();
+        return count > 0 ? this.totalLatency.get() / count : 0L;
+    }
+
+    /**
+     * @return the longest time, in milliseconds, between queuing an event and firing it
+     */
+    public long getMaxLatency()
+    {
+        return this.maxLatency.get();
+    }
+
+    private void fire(RecordableEvent event, DocumentReference documentReference, long queuedAt)
+    {
+        long latency = System.currentTimeMillis() - queuedAt;
+        XWikiDocument document = null;
+        if (documentReference != null) {
+            XWikiContext xcontext = this.xcontextProvider.get();
+            try {
+                document = xcontext.getWiki().getDocument(documentReference, xcontext);
+            } catch (XWikiException e) {
+                this.failedCount.incrementAndGet();
+                this.logger.error("Failed to load the document [{}] of the task flow notification [{}]",
+                    documentReference, event.getClass().getName(), e);
+                return;
+            }
+        }
+        this.observationManager.notify(event, EVENT_SOURCE, document);
+        this.dispatchedCount.incrementAndGet();
+        this.totalLatency.addAndGet(latency);
+        this.maxLatency.accumulateAndGet(latency, Math::max);
+    }
+}
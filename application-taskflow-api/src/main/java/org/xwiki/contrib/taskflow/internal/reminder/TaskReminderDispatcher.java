@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.reminder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+import org.xwiki.contrib.taskflow.TaskFlowManager;
+import org.xwiki.contrib.taskflow.TaskReminder;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Sends the reminder notifications of due tasks, shared by the scheduler job and the timing wheel.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskReminderDispatcher.class)
+@Singleton
+public class TaskReminderDispatcher
+{
+    private static final String WEB_HOME = "WebHome";
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private TaskFlowManager taskFlowManager;
+
+    @Inject
+    private TaskFlowConfiguration configuration;
+
+    @Inject
+    private TaskFlowMetrics metrics;
+
+    /**
+     * Reminds the given user of all the given tasks: with a single digest notification when digests are enabled, with
+     * one notification per task otherwise. The notifications are built from the snapshots, without loading the
+     * documents of the tasks.
+     *
+     * @param userRef the user responsible for the tasks
+     * @param reminders the reminders to send to the user
+     */
+    public void remind(DocumentReference userRef, List<TaskReminder> reminders)
+    {
+        long startTime = System.nanoTime();
+        // The same task can be reminded for several intervals in a single run, remind it once.
+        Map<String, TaskReminder> remindersByTask = new LinkedHashMap<>();
+        for (TaskReminder reminder : reminders) {
+            remindersByTask.putIfAbsent(reminder.getDocumentReference() + "#" + reminder.getRid(), reminder);
+        }
+
+        XWikiContext context = this.xcontextProvider.get();
+        if (!this.configuration.isReminderDigestEnabled()) {
+            for (TaskReminder reminder : remindersByTask.values()) {
+                this.taskFlowManager.notifyResponsibleUser(reminder.getDocumentReference(), userRef, "expiring",
+                    getTaskEventParams(reminder, context));
+            }
+            this.metrics.recordReminderDispatch(startTime, remindersByTask.size());
+            return;
+        }
+
+        List<Map<String, String>> tasksEventParams = new ArrayList<>(remindersByTask.size());
+        for (TaskReminder reminder : remindersByTask.values()) {
+            tasksEventParams.add(getTaskEventParams(reminder, context));
+        }
+        if (!tasksEventParams.isEmpty()) {
+            this.taskFlowManager.notifyResponsibleUser(userRef, tasksEventParams);
+        }
+        this.metrics.recordReminderDispatch(startTime, remindersByTask.size());
+    }
+
+    private Map<String, String> getTaskEventParams(TaskReminder reminder, XWikiContext context)
+    {
+        // The URL is computed from the reference, the document is not loaded.
+        String taskUrl = new XWikiDocument(reminder.getDocumentReference()).getExternalURL("view", context) + "#"
+            + reminder.getRid();
+        Map<String, String> taskEventParams = new HashMap<>();
+        taskEventParams.put("taskContent", StringUtils.defaultString(reminder.getContent()));
+        taskEventParams.put("taskCreator", StringUtils.defaultString(reminder.getCreator()));
+        taskEventParams.put("taskUrl", taskUrl);
+        taskEventParams.put("taskDueDate",
+            context.getWiki().formatDate(reminder.getDueDate(), "yyyy/MM/dd HH:mm", context));
+        taskEventParams.put("taskPage", getDocumentTitle(reminder));
+        return taskEventParams;
+    }
+
+    private String getDocumentTitle(TaskReminder reminder)
+    {
+        if (StringUtils.isNotBlank(reminder.getDocumentTitle())) {
+            return reminder.getDocumentTitle();
+        }
+        DocumentReference documentReference = reminder.getDocumentReference();
+        // Same fallback as the rendered title of a document without title: the name of its nested page.
+        if (WEB_HOME.equals(documentReference.getName())) {
+            return documentReference.getLastSpaceReference().getName();
+        }
+        return documentReference.getName();
+    }
+}
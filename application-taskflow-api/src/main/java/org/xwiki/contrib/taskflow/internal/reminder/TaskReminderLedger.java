@@ -0,0 +1,214 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.reminder;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Persists, for each wiki, the end of the period covered by the last complete reminder run (the high-water mark) and
+ * the compact keys of the reminders already sent in the period following it, along with whether the task assignments
+ * missing from the documents of the wiki were created. The keys are only kept while the period has reminders that
+ * could not be sent, so that the next run resends those alone; they are dropped once the high-water mark moves on.
+ * <p>
+ * The state is stored in the wiki itself, as a {@code TaskReminderLedgerClass} object of the hidden
+ * {@code Macros.CheckboxedTask.Code.TaskReminderLedger} document, so that all the members of a cluster share it and a
+ * failover neither sends the reminders again nor skips them. The document is saved without creating a new revision.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskReminderLedger.class)
+@Singleton
+public class TaskReminderLedger
+{
+    private static final List<String> CODE_SPACE = List.of("Macros", "CheckboxedTask", "Code");
+
+    private static final LocalDocumentReference LEDGER_REFERENCE =
+        new LocalDocumentReference(CODE_SPACE, "TaskReminderLedger");
+
+    private static final LocalDocumentReference LEDGER_CLASS_REFERENCE =
+        new LocalDocumentReference(CODE_SPACE, "TaskReminderLedgerClass");
+
+    private static final String WATERMARK = "watermark";
+
+    private static final String SENT_REMINDERS = "sentReminders";
+
+    private static final String ASSIGNMENTS_BACKFILLED = "assignmentsBackfilled";
+
+    private static final String KEY_SEPARATOR = ":";
+
+    private static final String KEYS_SEPARATOR = "\n";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * The reminder state of a wiki.
+     *
+     * @version $Id$
+     */
+    public static class State
+    {
+        private Date watermark;
+
+        private final Set<String> sentReminders = new HashSet<>();
+
+        private boolean assignmentsBackfilled;
+
+        /**
+         * @return the end of the period covered by the last successful reminder run, {@code null} if there was none
+         */
+        public Date getWatermark()
+        {
+            return this.watermark;
+        }
+
+        /**
+         * @param watermark the end of the period covered by the reminder run
+         */
+        public void setWatermark(Date watermark)
+        {
+            this.watermark = watermark;
+        }
+
+        /**
+         * @return the keys of the reminders already sent in the period starting at the high-water mark
+         */
+        public Set<String> getSentReminders()
+        {
+            return this.sentReminders;
+        }
+
+        /**
+         * @return {@code true} if the task assignments missing from the documents of the wiki were created
+         */
+        public boolean isAssignmentsBackfilled()
+        {
+            return this.assignmentsBackfilled;
+        }
+
+        /**
+         * @param assignmentsBackfilled whether the task assignments missing from the documents of the wiki were
+         *     created
+         */
+        public void setAssignmentsBackfilled(boolean assignmentsBackfilled)
+        {
+            this.assignmentsBackfilled = assignmentsBackfilled;
+        }
+    }
+
+    /**
+     * @param wikiId the wiki identifier
+     * @return the reminder state of the given wiki, empty if there was no reminder run yet
+     */
+    public State load(String wikiId)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWiki = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wikiId);
+            WikiReference wikiReference = new WikiReference(wikiId);
+            XWikiDocument document =
+                xcontext.getWiki().getDocument(new DocumentReference(LEDGER_REFERENCE, wikiReference), xcontext);
+            BaseObject ledgerObject = document.getXObject(new DocumentReference(LEDGER_CLASS_REFERENCE, wikiReference));
+            State state = new State();
+            if (ledgerObject == null) {
+                return state;
+            }
+            long watermark = ledgerObject.getLongValue(WATERMARK);
+            if (watermark > 0) {
+                state.setWatermark(new Date(watermark));
+            }
+            for (String key : StringUtils.split(ledgerObject.getLargeStringValue(SENT_REMINDERS), KEYS_SEPARATOR)) {
+                if (key.contains(KEY_SEPARATOR)) {
+                    state.getSentReminders().add(key);
+                }
+            }
+            state.setAssignmentsBackfilled(ledgerObject.getIntValue(ASSIGNMENTS_BACKFILLED) == 1);
+            return state;
+        } catch (XWikiException e) {
+            this.logger.warn("Failed to read the reminder ledger of wiki [{}], starting from scratch: [{}]", wikiId,
+                e.getMessage());
+            return new State();
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+
+    /**
+     * Saves the reminder state of a wiki, replacing the previous one.
+     *
+     * @param wikiId the wiki identifier
+     * @param state the state to save
+     */
+    public void save(String wikiId, State state)
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWiki = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wikiId);
+            XWiki xwiki = xcontext.getWiki();
+            WikiReference wikiReference = new WikiReference(wikiId);
+            XWikiDocument document =
+                xwiki.getDocument(new DocumentReference(LEDGER_REFERENCE, wikiReference), xcontext).clone();
+            BaseObject ledgerObject =
+                document.getXObject(new DocumentReference(LEDGER_CLASS_REFERENCE, wikiReference), true, xcontext);
+            ledgerObject.setLongValue(WATERMARK, state.getWatermark() != null ? state.getWatermark().getTime() : 0L);
+            ledgerObject.setLargeStringValue(SENT_REMINDERS, String.join(KEYS_SEPARATOR, state.getSentReminders()));
+            ledgerObject.setIntValue(ASSIGNMENTS_BACKFILLED, state.isAssignmentsBackfilled() ? 1 : 0);
+            if (document.isNew()) {
+                document.setHidden(true);
+                document.setTitle("Task Reminder Ledger");
+            } else {
+                // Save the object without a new revision: the content and the metadata are left unchanged.
+                document.setContentDirty(false);
+                document.setMetaDataDirty(false);
+            }
+            xwiki.saveDocument(document, "Recorded the sent task reminders", true, xcontext);
+        } catch (XWikiException e) {
+            this.logger.error("Failed to save the reminder ledger of wiki [{}]", wikiId, e);
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.reminder;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+import org.xwiki.contrib.taskflow.TaskFlowManager;
+import org.xwiki.contrib.taskflow.internal.TaskFlowContextRunner;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.contrib.taskflow.internal.store.TaskAssignmentStore;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.QueryException;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Runs the hourly task reminders of the whole wiki farm.
+ * <p>
+ * The wikis are processed in parallel by a bounded pool of threads, each wiki in its own execution context. A failure
+ * in one wiki is logged and does not prevent the reminders of the other wikis from being sent. The scheduler job of
+ * the main wiki covers the whole farm, so the jobs of the subwikis only run when the application is not installed on
+ * the main wiki.
+ * <p>
+ * Each run sends the reminders of the period starting where the previous run of the wiki ended, as recorded by the
+ * {@link TaskReminderLedger}, so that late, skipped or repeated runs neither lose nor duplicate reminders. When the
+ * reminders of some users cannot be sent, the period is not closed: the next run covers it again and only resends the
+ * reminders that were not recorded as sent. When the reminders are fired by the {@link TaskReminderTimingWheel}, the
+ * first run after a start sends the reminders that were due since the high-water mark, before the wheel was armed.
+ * <p>
+ * Once its reminders are processed, the task assignments missing from the documents of the wiki are created by the
+ * {@link TaskAssignmentStore}, away from the requests reading them. The ledger records that they were created, so
+ * that the documents of the wiki are only scanned once, not after each restart.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskReminderRunner.class)
+@Singleton
+public class TaskReminderRunner
+{
+    private static final LocalDocumentReference TASK_CLASS_REFERENCE =
+        new LocalDocumentReference(List.of("Macros", "CheckboxedTask", "Code"), "TaskClass");
+
+    private static final long REMINDER_PERIOD_MILLIS = 60L * 60L * 1000L;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private TaskFlowConfiguration configuration;
+
+    @Inject
+    private TaskFlowManager taskFlowManager;
+
+    @Inject
+    private TaskReminderDispatcher reminderDispatcher;
+
+    @Inject
+    private TaskReminderTimingWheel timingWheel;
+
+    @Inject
+    private TaskReminderLedger ledger;
+
+    @Inject
+    private TaskAssignmentStore assignmentStore;
+
+    @Inject
+    private TaskFlowContextRunner contextRunner;
+
+    @Inject
+    private TaskFlowMetrics metrics;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    /**
+     * Sends the reminders due in the wikis covered by the scheduler job running in the current wiki.
+     */
+    public void run()
+    {
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWikiId = xcontext.getWikiId();
+        Collection<String> wikiIds;
+        if (this.wikiDescriptorManager.isMainWiki(currentWikiId)) {
+            try {
+                wikiIds = this.wikiDescriptorManager.getAllIds();
+            } catch (WikiManagerException e) {
+                this.logger.error("Failed to get the list of wikis, only the main wiki is processed", e);
+                wikiIds = Collections.singletonList(currentWikiId);
+            }
+        } else if (isInstalled(this.wikiDescriptorManager.getMainWikiId(), xcontext)) {
+            this.logger.debug("The reminders of wiki [{}] are sent by the scheduler job of the main wiki.",
+                currentWikiId);
+            return;
+        } else {
+            wikiIds = Collections.singletonList(currentWikiId);
+        }
+        run(wikiIds, xcontext.getUserReference());
+    }
+
+    private void run(Collection<String> wikiIds, DocumentReference userReference)
+    {
+        long startTime = System.nanoTime();
+        int threads = Math.max(1, Math.min(this.configuration.getReminderThreads(), wikiIds.size()));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TaskFlow reminders " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Future<?>> results = new LinkedHashMap<>();
+        try {
+            for (String wikiId : wikiIds) {
+                results.put(wikiId,
+                    executor.submit(() -> this.contextRunner.run(wikiId, userReference, () -> processWiki(wikiId))));
+            }
+            int failures = 0;
+            for (Map.Entry<String, Future<?>> result : results.entrySet()) {
+                try {
+                    result.getValue().get();
+                } catch (ExecutionException e) {
+                    failures++;
+                    this.logger.error("Failed to send the task reminders of wiki [{}]", result.getKey(),
+                        e.getCause());
+                }
+            }
+            this.logger.debug("Processed the task reminders of [{}] wikis ([{}] failed) in [{}] ms.", wikiIds.size(),
+                failures, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.logger.warn("Interrupted while sending the task reminders.");
+        } finally {
+            executor.shutdownNow();
+            this.metrics.recordReminderRun(startTime);
+        }
+    }
+
+    private void processWiki(String wikiId)
+    {
+        if (isInstalled(wikiId, this.xcontextProvider.get())) {
+            runWiki(wikiId);
+            backfillAssignments(wikiId);
+        }
+    }
+
+    private void backfillAssignments(String wikiId)
+    {
+        TaskReminderLedger.State state = this.ledger.load(wikiId);
+        if (!this.assignmentStore.isEnabled()) {
+            // The tasks saved while the assignments are disabled get none: scan the documents again once enabled.
+            if (state.isAssignmentsBackfilled()) {
+                state.setAssignmentsBackfilled(false);
+                this.ledger.save(wikiId, state);
+            }
+        } else if (!state.isAssignmentsBackfilled() && this.assignmentStore.backfill(wikiId)) {
+            state.setAssignmentsBackfilled(true);
+            this.ledger.save(wikiId, state);
+        }
+    }
+
+    private void runWiki(String wikiId)
+    {
+        long startTime = System.currentTimeMillis();
+        TaskReminderLedger.State state = this.ledger.load(wikiId);
+        Date now = new Date();
+        if (this.timingWheel.isEnabled()) {
+            // The reminders are fired by the timing wheel, only make sure none of them was missed.
+            Date armedFrom = this.timingWheel.sweep();
+            if (armedFrom == null) {
+                return;
+            }
+            // Send the reminders that were due while the wheel was not running, e.g. during a restart. The high-water
+            // mark is kept if some of them can't be sent, so that the next run resends those.
+            Date armedSince = this.timingWheel.getArmedSince(wikiId);
+            if (state.getWatermark() == null || !state.getWatermark().before(armedSince)
+                || sendReminders(wikiId, state.getWatermark(), armedSince, state))
+            {
+                // Record how far the wheel has fired, so that a crash only repeats the reminders fired since this run.
+                advanceWatermark(state, armedFrom);
+            }
+            this.ledger.save(wikiId, state);
+            this.logger.debug("Swept the task reminders of wiki [{}] in [{}] ms.", wikiId,
+                System.currentTimeMillis() - startTime);
+            return;
+        }
+
+        // Process exactly the period since the end of the previous run, up to the coming hour, skipping the
+        // reminders already sent (e.g. when the job runs twice).
+        if (state.getWatermark() == null) {
+            state.setWatermark(now);
+        }
+        Date from = state.getWatermark();
+        Date to = new Date(now.getTime() + REMINDER_PERIOD_MILLIS);
+        if (sendReminders(wikiId, from, to, state)) {
+            advanceWatermark(state, to);
+        }
+        // Otherwise keep the previous high-water mark along with the keys of the reminders sent, so that the next run
+        // covers the period again and only resends the reminders that failed.
+        this.ledger.save(wikiId, state);
+        this.logger.debug("Sent the task reminders of wiki [{}] for the period [{}, {}) in [{}] ms.", wikiId, from, to,
+            System.currentTimeMillis() - startTime);
+    }
+
+    private void advanceWatermark(TaskReminderLedger.State state, Date to)
+    {
+        if (state.getWatermark() == null || state.getWatermark().before(to)) {
+            state.setWatermark(to);
+            // The period of the recorded keys is complete, the next one starts with no reminder sent.
+            state.getSentReminders().clear();
+        }
+    }
+
+    /**
+     * Sends one digest (or one notification per task when digests are disabled) per user, as the reminders of each
+     * user are pushed by the manager.
+     *
+     * @return {@code true} if all the reminders of the period were sent, {@code false} if the tasks to remind could
+     *     not be selected or the reminders of some users could not be sent
+     */
+    private boolean sendReminders(String wikiId, Date from, Date to, TaskReminderLedger.State state)
+    {
+        AtomicInteger userCount = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        try {
+            this.taskFlowManager.streamTasksToRemind(from, to, state.getSentReminders(), (userRef, reminders) -> {
+                userCount.incrementAndGet();
+                try {
+                    this.reminderDispatcher.remind(userRef, reminders);
+                    // Only the reminders actually sent are skipped by the next runs.
+                    reminders.forEach(reminder -> state.getSentReminders().add(reminder.getKey()));
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                    this.logger.error("Failed to send the task reminders of [{}] in wiki [{}]", userRef, wikiId, e);
+                }
+            });
+        } catch (QueryException e) {
+            this.logger.error("Failed to get the tasks to remind of wiki [{}]", wikiId, e);
+            return false;
+        }
+        this.logger.debug("Sent the task reminders of [{}] users ([{}] failed) of wiki [{}] for the period [{}, {}).",
+            userCount, failures, wikiId, from, to);
+        return failures.get() == 0;
+    }
+
+    private boolean isInstalled(String wikiId, XWikiContext xcontext)
+    {
+        return xcontext.getWiki().exists(new DocumentReference(TASK_CLASS_REFERENCE, new WikiReference(wikiId)),
+            xcontext);
+    }
+}
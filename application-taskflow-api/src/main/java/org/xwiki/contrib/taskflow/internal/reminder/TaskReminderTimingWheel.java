@@ -0,0 +1,381 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.reminder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+import org.xwiki.contrib.taskflow.TaskReminder;
+import org.xwiki.contrib.taskflow.internal.ReminderInterval;
+import org.xwiki.contrib.taskflow.internal.TaskDueEntry;
+import org.xwiki.contrib.taskflow.internal.TaskFlowContextRunner;
+import org.xwiki.contrib.taskflow.internal.index.TaskDueDateIndex;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryException;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Hierarchical timing wheel firing the task reminders at the exact minute they are due.
+ * <p>
+ * The wheel has three levels: 60 one-minute slots, 24 one-hour slots and 8 one-day slots. A reminder is armed in the
+ * coarsest level that can hold it and cascades down to the finer levels as its firing time gets closer, so that both
+ * arming and ticking cost a constant time per reminder. The reminders of a task are armed each time the task is saved,
+ * while the scheduler job acts as a safety sweep re-arming the wheel from the due date index.
+ * <p>
+ * The reminders of a wiki are only armed once the wiki has been swept since the wheel started: the first sweep tells
+ * the {@link TaskReminderRunner} from when the wheel fires the reminders of the wiki, so that it can send the ones that
+ * were due while the wheel was not running (e.g. during a restart). The runner records the start of the next minute
+ * to fire in the {@link TaskReminderLedger} after each sweep, so that stopping the wheel writes nothing to the wikis
+ * and a restart only repeats the reminders fired since the last sweep.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskReminderTimingWheel.class)
+@Singleton
+public class TaskReminderTimingWheel implements Initializable, Disposable
+{
+    private static final int MINUTE_SLOTS = 60;
+
+    private static final int HOUR_SLOTS = 24;
+
+    private static final int DAY_SLOTS = 8;
+
+    private static final long MINUTE_MILLIS = 60_000L;
+
+    private static final long MINUTES_PER_HOUR = 60L;
+
+    private static final long MINUTES_PER_DAY = 1440L;
+
+    private static final long HORIZON_MINUTES = DAY_SLOTS * MINUTES_PER_DAY;
+
+    private static final long MAX_OFFSET_MINUTES = ReminderInterval.D5.getOffset().toMinutes();
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private TaskFlowConfiguration configuration;
+
+    @Inject
+    private TaskFlowContextRunner contextRunner;
+
+    @Inject
+    private TaskReminderDispatcher reminderDispatcher;
+
+    @Inject
+    private TaskDueDateIndex dueDateIndex;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    private final List<List<ReminderTimer>> minuteWheel = createWheel(MINUTE_SLOTS);
+
+    private final List<List<ReminderTimer>> hourWheel = createWheel(HOUR_SLOTS);
+
+    private final List<List<ReminderTimer>> dayWheel = createWheel(DAY_SLOTS);
+
+    private final Map<DocumentReference, List<ReminderTimer>> timersByDocument = new HashMap<>();
+
+    /**
+     * The start of the first minute whose reminders are fired by the wheel, for each swept wiki.
+     */
+    private final Map<String, Date> armedSince = new HashMap<>();
+
+    private long currentMinute;
+
+    private ScheduledExecutorService ticker;
+
+    @Override
+    public void initialize()
+    {
+        if (!this.configuration.isTimingWheelEnabled()) {
+            return;
+        }
+        this.currentMinute = toMinute(System.currentTimeMillis());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TaskFlow reminder timing wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long initialDelay = MINUTE_MILLIS - System.currentTimeMillis() % MINUTE_MILLIS;
+        this.ticker.scheduleAtFixedRate(this::tick, initialDelay, MINUTE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.ticker != null) {
+            this.ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * @return {@code true} if the timing wheel is enabled by the configuration
+     */
+    public boolean isEnabled()
+    {
+        return this.ticker != null;
+    }
+
+    /**
+     * Arms the reminders of the given tasks, replacing the reminders previously armed for the same document. Nothing
+     * is armed until the wiki of the document is swept, since the sweep arms the reminders of all its tasks.
+     *
+     * @param documentReference the reference of the document holding the tasks
+     * @param dueEntries the open tasks of the document
+     */
+    public void arm(DocumentReference documentReference, List<TaskDueEntry> dueEntries)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (!this.armedSince.containsKey(documentReference.getWikiReference().getName())) {
+                return;
+            }
+            List<ReminderTimer> previousTimers = this.timersByDocument.remove(documentReference);
+            if (previousTimers != null) {
+                previousTimers.forEach(timer -> timer.cancelled = true);
+            }
+            List<ReminderTimer> timers = new ArrayList<>();
+            for (TaskDueEntry dueEntry : dueEntries) {
+                for (String intervalKey : dueEntry.getReminderTimes()) {
+                    ReminderInterval interval = ReminderInterval.fromKey(intervalKey);
+                    if (interval == null) {
+                        continue;
+                    }
+                    long fireMinute =
+                        toMinute(dueEntry.getDueDate().getTime() - interval.getOffset().toMillis());
+                    ReminderTimer timer = new ReminderTimer(dueEntry, interval, fireMinute);
+                    if (fireMinute > this.currentMinute && schedule(timer)) {
+                        timers.add(timer);
+                    }
+                }
+            }
+            if (!timers.isEmpty()) {
+                this.timersByDocument.put(documentReference, timers);
+            }
+        }
+    }
+
+    /**
+     * @param wikiId the identifier of a wiki
+     * @return the start of the first minute whose reminders were fired by the wheel for the given wiki, i.e. when the
+     *     wiki was first swept since the wheel started, or {@code null} if it was not swept yet
+     */
+    public synchronized Date getArmedSince(String wikiId)
+    {
+        return this.armedSince.get(wikiId);
+    }
+
+    /**
+     * Re-arms the wheel from the due date index of the current wiki.
+     *
+     * @return the start of the first minute whose reminders are fired by the wheel, i.e. the reminders due before it
+     *     were not armed, or {@code null} if the wheel is disabled or the due date index cannot be read
+     */
+    public Date sweep()
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+        String wikiId = this.xcontextProvider.get().getWikiId();
+        long now = System.currentTimeMillis();
+        // Every reminder firing within the horizon of the wheel belongs to a task due before this date.
+        Date end = new Date(now + (HORIZON_MINUTES + MAX_OFFSET_MINUTES) * MINUTE_MILLIS);
+        try {
+            Map<DocumentReference, List<TaskDueEntry>> entriesByDocument = new LinkedHashMap<>();
+            for (TaskDueEntry dueEntry : this.dueDateIndex.getDueTasks(new Date(now), end)) {
+                entriesByDocument.computeIfAbsent(dueEntry.getDocumentReference(), k -> new ArrayList<>())
+                    .add(dueEntry);
+            }
+            synchronized (this) {
+                Date armedFrom = new Date((this.currentMinute + 1) * MINUTE_MILLIS);
+                this.armedSince.putIfAbsent(wikiId, armedFrom);
+                entriesByDocument.forEach(this::arm);
+                this.logger.debug("Re-armed the reminder timing wheel for [{}] documents.", entriesByDocument.size());
+                return armedFrom;
+            }
+        } catch (QueryException e) {
+            this.logger.error("Failed to re-arm the reminder timing wheel", e);
+            return null;
+        }
+    }
+
+    private boolean schedule(ReminderTimer timer)
+    {
+        long delta = timer.fireMinute - this.currentMinute;
+        if (delta < MINUTES_PER_HOUR) {
+            this.minuteWheel.get((int) (timer.fireMinute % MINUTE_SLOTS)).add(timer);
+        } else if (delta < MINUTES_PER_DAY) {
+            this.hourWheel.get((int) ((timer.fireMinute / MINUTES_PER_HOUR) % HOUR_SLOTS)).add(timer);
+        } else if (delta < HORIZON_MINUTES) {
+            this.dayWheel.get((int) ((timer.fireMinute / MINUTES_PER_DAY) % DAY_SLOTS)).add(timer);
+        } else {
+            // Beyond the horizon of the wheel: a later sweep will arm it.
+            return false;
+        }
+        return true;
+    }
+
+    private void tick()
+    {
+        // The executor cancels the ticks that follow one throwing an exception, which would stop the wheel for good.
+        try {
+            advanceAndFire();
+        } catch (Exception e) {
+            this.logger.error("Failed to fire the reminders of the timing wheel", e);
+        }
+    }
+
+    private void advanceAndFire()
+    {
+        List<ReminderTimer> dueTimers = new ArrayList<>();
+        synchronized (this) {
+            long nowMinute = toMinute(System.currentTimeMillis());
+            // Catch up on the ticks that were missed, e.g. because firing the previous reminders took long.
+            while (this.currentMinute < nowMinute) {
+                this.currentMinute++;
+                advance(dueTimers);
+            }
+            for (ReminderTimer timer : dueTimers) {
+                List<ReminderTimer> documentTimers = this.timersByDocument.get(timer.entry.getDocumentReference());
+                if (documentTimers != null) {
+                    documentTimers.remove(timer);
+                    if (documentTimers.isEmpty()) {
+                        this.timersByDocument.remove(timer.entry.getDocumentReference());
+                    }
+                }
+            }
+        }
+        fire(dueTimers);
+    }
+
+    private void advance(List<ReminderTimer> dueTimers)
+    {
+        if (this.currentMinute % MINUTES_PER_DAY == 0) {
+            cascade(this.dayWheel.get((int) ((this.currentMinute / MINUTES_PER_DAY) % DAY_SLOTS)), dueTimers);
+        }
+        if (this.currentMinute % MINUTES_PER_HOUR == 0) {
+            cascade(this.hourWheel.get((int) ((this.currentMinute / MINUTES_PER_HOUR) % HOUR_SLOTS)), dueTimers);
+        }
+        cascade(this.minuteWheel.get((int) (this.currentMinute % MINUTE_SLOTS)), dueTimers);
+    }
+
+    private void cascade(List<ReminderTimer> slot, List<ReminderTimer> dueTimers)
+    {
+        List<ReminderTimer> timers = new ArrayList<>(slot);
+        slot.clear();
+        for (ReminderTimer timer : timers) {
+            if (timer.cancelled) {
+                continue;
+            }
+            if (timer.fireMinute <= this.currentMinute) {
+                dueTimers.add(timer);
+            } else {
+                schedule(timer);
+            }
+        }
+    }
+
+    private void fire(List<ReminderTimer> dueTimers)
+    {
+        // Group the reminders firing in the same minute by wiki and user, so that each user gets a single digest.
+        Map<String, Map<DocumentReference, List<TaskReminder>>> remindersByWiki = new HashMap<>();
+        for (ReminderTimer timer : dueTimers) {
+            Map<DocumentReference, List<TaskReminder>> userReminders = remindersByWiki.computeIfAbsent(
+                timer.entry.getDocumentReference().getWikiReference().getName(), k -> new HashMap<>());
+            for (DocumentReference userRef : timer.entry.getResponsible()) {
+                userReminders.computeIfAbsent(userRef, k -> new ArrayList<>())
+                    .add(timer.entry.toReminder(userRef, timer.interval));
+            }
+        }
+        remindersByWiki.forEach(this::fire);
+    }
+
+    private void fire(String wikiId, Map<DocumentReference, List<TaskReminder>> userReminders)
+    {
+        try {
+            this.contextRunner.run(wikiId, null, () -> userReminders.forEach((userRef, reminders) -> {
+                try {
+                    this.reminderDispatcher.remind(userRef, reminders);
+                } catch (Exception e) {
+                    this.logger.error("Failed to send the reminders of [{}] in wiki [{}]", userRef, wikiId, e);
+                }
+            }));
+        } catch (Exception e) {
+            this.logger.error("Failed to fire the reminders of wiki [{}]", wikiId, e);
+        }
+    }
+
+    private static long toMinute(long timeMillis)
+    {
+        return Math.floorDiv(timeMillis, MINUTE_MILLIS);
+    }
+
+    private static List<List<ReminderTimer>> createWheel(int slots)
+    {
+        List<List<ReminderTimer>> wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        return wheel;
+    }
+
+    /**
+     * A reminder armed in the wheel.
+     */
+    private static final class ReminderTimer
+    {
+        private final TaskDueEntry entry;
+
+        private final ReminderInterval interval;
+
+        private final long fireMinute;
+
+        private boolean cancelled;
+
+        ReminderTimer(TaskDueEntry entry, ReminderInterval interval, long fireMinute)
+        {
+            this.entry = entry;
+            this.interval = interval;
+            this.fireMinute = fireMinute;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.report;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A page of the task report, read by {@link TaskReportSource#read(Map)} with the context of the request and written
+ * as JSON by {@link TaskReportSource#write(TaskReport, java.io.OutputStream)}, which doesn't need any context.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskReport
+{
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    private final List<Map<String, String>> rows = new ArrayList<>();
+
+    /**
+     * @return the top-level fields of the report, whose values are strings, numbers, booleans or {@code null}
+     */
+    Map<String, Object> getFields()
+    {
+        return this.fields;
+    }
+
+    /**
+     * @return the rows of the report, each mapping its columns to their rendered values
+     */
+    List<Map<String, String>> getRows()
+    {
+        return this.rows;
+    }
+}
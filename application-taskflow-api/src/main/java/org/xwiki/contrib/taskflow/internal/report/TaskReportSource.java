@@ -0,0 +1,399 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.report;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.Task;
+import org.xwiki.contrib.taskflow.TaskCursor;
+import org.xwiki.contrib.taskflow.TaskPage;
+import org.xwiki.contrib.taskflow.TaskQuery;
+import org.xwiki.contrib.taskflow.TaskStore;
+import org.xwiki.contrib.taskflow.internal.store.TaskCountCache;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.xml.XMLUtils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Data source of the task report table, writing the page of tasks requested by the live table in its JSON format.
+ * <p>
+ * The page is read in two steps: {@link #read(Map)} runs the queries and renders the rows with the context of the
+ * request, then {@link #write(TaskReport, OutputStream)} streams them to the response with the Jackson generator,
+ * without needing any context. The rows are built from the task store projection, which already holds the titles of
+ * the documents, and the display names of the responsible users are resolved with a single query per page of results,
+ * so that no document is loaded whatever the size of the page.
+ * <p>
+ * The live table requests a page by its offset. Clients sending a {@code cursor} parameter, empty for the first page,
+ * get the pages by seeking instead: each response holds the {@code nextCursor} to send for the next page, and getting
+ * a page costs the same wherever it is in the list.
+ * <p>
+ * The {@code totalrowsApproximate} field tells whether the {@code totalrows} count may be an estimate that misses the
+ * latest changes, see {@link TaskCountCache}.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskReportSource.class)
+@Singleton
+public class TaskReportSource
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final int DEFAULT_LIMIT = 10;
+
+    private static final String USER_CLASS_NAME = "XWiki.XWikiUsers";
+
+    private static final String VIEW_ACTION = "view";
+
+    private static final String WEB_HOME = "WebHome";
+
+    private static final String SORT = "sort";
+
+    private static final String DIR = "dir";
+
+    private static final String DONE = "done";
+
+    private static final String CURSOR = "cursor";
+
+    private static final String NEXT_CURSOR = "nextCursor";
+
+    private static final String DONE_COLUMN = "🗹";
+
+    private static final Map<String, TaskQuery.SortField> SORT_FIELDS = Map.of(
+        "page", TaskQuery.SortField.DOCUMENT_TITLE,
+        "responsible", TaskQuery.SortField.RESPONSIBLE,
+        "dueDate", TaskQuery.SortField.DUE_DATE,
+        "task", TaskQuery.SortField.CONTENT,
+        DONE_COLUMN, TaskQuery.SortField.DONE
+    );
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private TaskStore taskStore;
+
+    @Inject
+    private TaskCountCache countCache;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private ContextualLocalizationManager localization;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    @Named("user")
+    private DocumentReferenceResolver<String> userResolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    /**
+     * Builds the query of the tasks requested by the live table.
+     *
+     * @param parameters the request parameters sent by the live table
+     * @return the query of the requested page of tasks
+     */
+    public TaskQuery createQuery(Map<String, String[]> parameters)
+    {
+        TaskQuery query = new TaskQuery();
+        query.setOffset(getOffset(parameters));
+        query.setLimit(getLimit(parameters));
+        String cursor = getParameter(parameters, CURSOR);
+        if (StringUtils.isNotEmpty(cursor)) {
+            try {
+                query.setAfter(TaskCursor.parse(cursor));
+            } catch (IllegalArgumentException e) {
+                this.logger.debug("Ignoring the invalid cursor [{}]: [{}]", cursor, e.getMessage());
+            }
+        }
+
+        TaskQuery.SortField sortField = SORT_FIELDS.get(StringUtils.defaultString(getParameter(parameters, SORT)));
+        if (sortField != null) {
+            String direction = getParameter(parameters, DIR);
+            query.setSort(sortField, StringUtils.isEmpty(direction) || "asc".equalsIgnoreCase(direction));
+        }
+
+        query.setProtectedExcluded(true);
+        query.addExcludedDocumentPrefix("Sandbox.");
+        String page = getParameter(parameters, "page");
+        if (StringUtils.isNotEmpty(page)) {
+            query.setDocumentPrefix(page);
+        }
+        XWikiContext xcontext = this.xcontextProvider.get();
+        if (xcontext.getWiki().getUserPreferenceAsInt("displayHiddenDocuments", 0, xcontext) != 1) {
+            query.setHiddenExcluded(true);
+        }
+        String project = getParameter(parameters, "project");
+        if (StringUtils.isNotEmpty(project)) {
+            query.setProject(this.resolver.resolve(project));
+        }
+        String content = getParameter(parameters, "task");
+        if (StringUtils.isNotEmpty(content)) {
+            query.setContent(content);
+        }
+        String responsible = getParameter(parameters, "responsible");
+        if (StringUtils.isNotEmpty(responsible)) {
+            query.setResponsible(this.userResolver.resolve(responsible));
+        }
+        // Date range matching, the bounds are sent as timestamps.
+        String[] dates = StringUtils.split(StringUtils.defaultString(getParameter(parameters, "dueDate")), '-');
+        if (dates.length == 2 && NumberUtils.isDigits(dates[0]) && NumberUtils.isDigits(dates[1])) {
+            query.setDueDateRange(new Date(Long.parseLong(dates[0])), new Date(Long.parseLong(dates[1])));
+        }
+        String done = getParameter(parameters, DONE);
+        if (StringUtils.isNotEmpty(done)) {
+            query.setDone("1".equals(done));
+        }
+        return query;
+    }
+
+    /**
+     * Writes the page of tasks requested by the live table, in the JSON format expected by the live table.
+     *
+     * @param parameters the request parameters sent by the live table
+     * @param outputStream the stream to write the JSON to, left open
+     * @throws QueryException if the tasks cannot be retrieved, in which case nothing has been written
+     * @throws IOException if the JSON cannot be written
+     */
+    public void write(Map<String, String[]> parameters, OutputStream outputStream) throws QueryException, IOException
+    {
+        write(read(parameters), outputStream);
+    }
+
+    /**
+     * Reads the page of tasks requested by the live table and renders its rows, which needs the context of the
+     * request, e.g. for the URLs and the translations.
+     *
+     * @param parameters the request parameters sent by the live table
+     * @return the requested page of tasks, ready to be written
+     * @throws QueryException if the tasks cannot be retrieved
+     */
+    public TaskReport read(Map<String, String[]> parameters) throws QueryException
+    {
+        long startTime = System.currentTimeMillis();
+        TaskQuery query = createQuery(parameters);
+        long count = this.taskStore.count(query);
+        List<Task> tasks;
+        TaskCursor next = null;
+        boolean keyset = parameters.containsKey(CURSOR);
+        if (keyset) {
+            TaskPage page = this.taskStore.seek(query);
+            tasks = page.getTasks();
+            next = page.getNext();
+        } else {
+            tasks = this.taskStore.search(query);
+        }
+        Map<DocumentReference, String> userNames = getUserNames(tasks);
+
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String checkedTooltip = this.localization.getTranslationPlain("reportchecktasks.macro.tooltip1");
+        String uncheckedTooltip = this.localization.getTranslationPlain("reportchecktasks.macro.tooltip0");
+        SimpleDateFormat dateFormat = new SimpleDateFormat(
+            this.localization.getTranslationPlain("checktask.macro.dateFormat"), xcontext.getLocale());
+
+        TaskReport report = new TaskReport();
+        Map<String, Object> fields = report.getFields();
+        fields.put("totalrows", count);
+        fields.put("totalrowsApproximate", this.countCache.isApproximate(query));
+        fields.put("returnedrows", tasks.size());
+        fields.put("offset", query.getOffset());
+        fields.put("reqNo", NumberUtils.toInt(getParameter(parameters, "reqNo")));
+        fields.put(SORT, StringUtils.defaultString(getParameter(parameters, SORT)));
+        fields.put(DIR, StringUtils.defaultString(getParameter(parameters, DIR)));
+        if (keyset) {
+            fields.put(NEXT_CURSOR, next != null ? next.toString() : null);
+        }
+        for (Task task : tasks) {
+            String taskPage = this.localSerializer.serialize(task.getDocumentReference());
+            // The URL is put in an attribute, where the characters of the document name must not be interpreted.
+            String documentURL =
+                XMLUtils.escape(xcontext.getWiki().getURL(task.getDocumentReference(), VIEW_ACTION, xcontext));
+            String checkbox = String.format(
+                "<input name='checktask' type='checkbox' class='checktask-checkbox' data-page='%s' value='%s' "
+                    + "title='%s' %sdisabled/>", XMLUtils.escape(taskPage), XMLUtils.escape(task.getRid()),
+                XMLUtils.escape(task.isDone() ? checkedTooltip : uncheckedTooltip),
+                task.isDone() ? "checked " : "");
+
+            Map<String, String> row = new LinkedHashMap<>();
+            row.put(DONE_COLUMN, checkbox);
+            row.put(DONE, task.isDone() ? "1" : "0");
+            row.put("task", String.format("<a href='%s#%s'>%s</a>", documentURL, XMLUtils.escape(task.getRid()),
+                XMLUtils.escape(task.getContent())));
+            row.put("dueDate", task.getDueDate() != null ? dateFormat.format(task.getDueDate()) : "");
+            putResponsible(row, task, userNames, xcontext);
+            row.put("page", String.format("<a href='%s'>%s</a>", documentURL, XMLUtils.escape(getTitle(task))));
+            row.put("space", taskPage);
+            row.put("rid", task.getRid());
+            report.getRows().add(row);
+        }
+        this.logger.debug("Read [{}] tasks of the report in [{}] ms.", tasks.size(),
+            System.currentTimeMillis() - startTime);
+        return report;
+    }
+
+    /**
+     * Writes a page of tasks in the JSON format expected by the live table. This doesn't need the context of the
+     * request, so that the page can be streamed to the response once the request is handled.
+     *
+     * @param report the page of tasks to write
+     * @param outputStream the stream to write the JSON to, left open
+     * @throws IOException if the JSON cannot be written
+     */
+    public void write(TaskReport report, OutputStream outputStream) throws IOException
+    {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            for (Map.Entry<String, Object> field : report.getFields().entrySet()) {
+                generator.writeObjectField(field.getKey(), field.getValue());
+            }
+            generator.writeObjectFieldStart("matchingtags");
+            generator.writeEndObject();
+            generator.writeArrayFieldStart("tags");
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("rows");
+            for (Map<String, String> row : report.getRows()) {
+                generator.writeStartObject();
+                generator.writeBooleanField("doc_viewable", true);
+                for (Map.Entry<String, String> column : row.entrySet()) {
+                    generator.writeStringField(column.getKey(), column.getValue());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private void putResponsible(Map<String, String> row, Task task, Map<DocumentReference, String> userNames,
+        XWikiContext xcontext)
+    {
+        String name = "";
+        String profile = "";
+        if (!task.getResponsible().isEmpty()) {
+            DocumentReference userReference = this.resolver.resolve(task.getResponsible().get(0));
+            name = userNames.getOrDefault(userReference, userReference.getName());
+            profile = xcontext.getWiki().getURL(userReference, VIEW_ACTION, xcontext);
+        }
+        row.put("responsible", name);
+        row.put("profile", profile);
+    }
+
+    /**
+     * Resolves the display names of the users shown for the given tasks, with a single query per wiki of users.
+     *
+     * @param tasks the tasks to display
+     * @return the display names of the users, by user reference
+     */
+    private Map<DocumentReference, String> getUserNames(List<Task> tasks) throws QueryException
+    {
+        Map<String, Set<String>> usersByWiki = new HashMap<>();
+        for (Task task : tasks) {
+            if (!task.getResponsible().isEmpty()) {
+                DocumentReference userReference = this.resolver.resolve(task.getResponsible().get(0));
+                usersByWiki.computeIfAbsent(userReference.getWikiReference().getName(), k -> new LinkedHashSet<>())
+                    .add(this.localSerializer.serialize(userReference));
+            }
+        }
+        Map<DocumentReference, String> userNames = new HashMap<>();
+        for (Map.Entry<String, Set<String>> wikiUsers : usersByWiki.entrySet()) {
+            Query query = this.queryManager.createQuery(String.format("select doc.fullName, user.first_name, "
+                + "user.last_name from Document doc, doc.object(%s) as user where doc.fullName in (:users)",
+                USER_CLASS_NAME), Query.XWQL);
+            query.setWiki(wikiUsers.getKey());
+            query.bindValue("users", new ArrayList<>(wikiUsers.getValue()));
+            for (Object[] row : query.<Object[]>execute()) {
+                DocumentReference userReference =
+                    this.resolver.resolve((String) row[0], new WikiReference(wikiUsers.getKey()));
+                userNames.put(userReference,
+                    StringUtils.defaultString((String) row[1]) + " " + StringUtils.defaultString((String) row[2]));
+            }
+        }
+        return userNames;
+    }
+
+    private String getTitle(Task task)
+    {
+        if (StringUtils.isNotBlank(task.getDocumentTitle())) {
+            return task.getDocumentTitle();
+        }
+        DocumentReference documentReference = task.getDocumentReference();
+        return WEB_HOME.equals(documentReference.getName())
+            ? documentReference.getLastSpaceReference().getName() : documentReference.getName();
+    }
+
+    private int getOffset(Map<String, String[]> parameters)
+    {
+        // The offset sent by the live table starts from 1.
+        int offset = NumberUtils.toInt(getParameter(parameters, "offset"));
+        return offset > 0 ? offset - 1 : 0;
+    }
+
+    private int getLimit(Map<String, String[]> parameters)
+    {
+        int limit = NumberUtils.toInt(getParameter(parameters, "limit"));
+        return limit > 0 ? limit : DEFAULT_LIMIT;
+    }
+
+    private String getParameter(Map<String, String[]> parameters, String name)
+    {
+        String[] values = parameters.get(name);
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.rest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.internal.report.TaskReport;
+import org.xwiki.contrib.taskflow.internal.report.TaskReportSource;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.QueryException;
+import org.xwiki.rest.XWikiResource;
+import org.xwiki.rest.XWikiRestComponent;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * REST resource serving the task report table of a wiki, e.g. {@code /rest/wikis/xwiki/taskflow/tasks?limit=10}. It
+ * accepts the same parameters and returns the same JSON as the {@code Macros.CheckboxedTask.Code.TaskJSON} page.
+ * <p>
+ * The page of tasks is read before the method returns, while the context of the request is still set up, so that a
+ * failing query gets an error response. Its JSON is then streamed to the response, which doesn't need the context.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component
+@Named("org.xwiki.contrib.taskflow.internal.rest.TaskReportResource")
+@Path("/wikis/{wikiName}/taskflow/tasks")
+public class TaskReportResource extends XWikiResource implements XWikiRestComponent
+{
+    @Inject
+    private TaskReportSource reportSource;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    /**
+     * @param wikiName the wiki holding the tasks
+     * @return the requested page of tasks, as JSON
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public StreamingOutput getTasks(@PathParam("wikiName") String wikiName)
+    {
+        checkWiki(wikiName);
+        Map<String, String[]> parameters = new HashMap<>();
+        for (Map.Entry<String, List<String>> parameter : this.uriInfo.getQueryParameters().entrySet()) {
+            parameters.put(parameter.getKey(), parameter.getValue().toArray(new String[0]));
+        }
+        TaskReport report;
+        XWikiContext xcontext = getXWikiContext();
+        String currentWiki = xcontext.getWikiId();
+        try {
+            xcontext.setWikiId(wikiName);
+            report = this.reportSource.read(parameters);
+        } catch (QueryException e) {
+            this.logger.warn("Failed to get the tasks of wiki [{}]: [{}]", wikiName, e.getMessage());
+            throw new WebApplicationException(e, Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+        return outputStream -> this.reportSource.write(report, outputStream);
+    }
+
+    private void checkWiki(String wikiName)
+    {
+        try {
+            if (!this.wikiDescriptorManager.exists(wikiName)) {
+                throw new WebApplicationException(Status.NOT_FOUND);
+            }
+        } catch (WikiManagerException e) {
+            throw new WebApplicationException(e, Status.INTERNAL_SERVER_ERROR);
+        }
+        if (!this.authorization.hasAccess(Right.VIEW, new WikiReference(wikiName))) {
+            throw new WebApplicationException(Status.UNAUTHORIZED);
+        }
+    }
+}
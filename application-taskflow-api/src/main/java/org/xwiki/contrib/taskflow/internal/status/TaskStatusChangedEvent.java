@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.status;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Fired by the {@link TaskStatusService} once the document holding toggled tasks is saved, telling which tasks were
+ * toggled, which the document events don't. The event is serializable so that it is also sent to the other members of
+ * the cluster.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskStatusChangedEvent implements Event, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final DocumentReference documentReference;
+
+    private final Map<String, Boolean> statuses;
+
+    /**
+     * Creates an event matching any task status change.
+     */
+    public TaskStatusChangedEvent()
+    {
+        this(null, Collections.emptyMap());
+    }
+
+    /**
+     * Creates an event for the given status changes.
+     *
+     * @param documentReference the document holding the changed tasks
+     * @param statuses the new done state of the changed tasks, by task identifier
+     */
+    public TaskStatusChangedEvent(DocumentReference documentReference, Map<String, Boolean> statuses)
+    {
+        this.documentReference = documentReference;
+        this.statuses = Collections.unmodifiableMap(new LinkedHashMap<>(statuses));
+    }
+
+    /**
+     * @return the document holding the changed tasks
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.documentReference;
+    }
+
+    /**
+     * @return the new done state of the changed tasks, by task identifier
+     */
+    public Map<String, Boolean> getStatuses()
+    {
+        return this.statuses;
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof TaskStatusChangedEvent;
+    }
+}
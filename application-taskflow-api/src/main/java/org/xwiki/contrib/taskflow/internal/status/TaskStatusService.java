@@ -0,0 +1,440 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.status;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.ObservationManager;
+import org.xwiki.security.authorization.AccessDeniedException;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Checks and unchecks tasks by saving their document as a minor edit.
+ * <p>
+ * The task objects are changed in a copy of the cached document, which is then saved as usual: the save creates a
+ * minor revision recording who toggled which tasks, fires the document events that keep the task caches and indexes
+ * up to date, on this instance and on the other members of the cluster, and replaces the cached document once the copy
+ * is stored. A {@link TaskStatusChangedEvent} then tells which tasks were toggled.
+ * <p>
+ * The status changes of a same document are serialized by a lock taken by {@link #setDone(DocumentReference, Map)}
+ * for a bounded time, and released once the document is saved. A document saved from a copy taken before a status
+ * change is merged with the latest statuses by {@link #beginSave(XWikiDocument)} when it is about to be saved, so that
+ * it doesn't revert them. The status changes of the document then wait for {@link #endSave(XWikiDocument)}, once it
+ * is stored, so that the save doesn't overwrite them either. A save that fails never ends: its lease is released by
+ * {@link #endSaves()} when the request that began it ends, and the status changes stop waiting for the saves made
+ * outside of a request after the same bounded time.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskStatusService.class)
+@Singleton
+public class TaskStatusService
+{
+    private static final LocalDocumentReference TASK_CLASS_REFERENCE =
+        new LocalDocumentReference(List.of("Macros", "CheckboxedTask", "Code"), "TaskClass");
+
+    private static final String RID = "rid";
+
+    private static final String DONE = "done";
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final long LOCK_TIMEOUT_SECONDS = 30;
+
+    private static final String CONTEXT_SAVES_KEY = "taskflow.saves";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    private ObservationManager observationManager;
+
+    @Inject
+    private ContextualLocalizationManager localization;
+
+    private final Lock[] locks = createLocks();
+
+    private final Condition[] savesEnded = createConditions(this.locks);
+
+    /**
+     * The documents being saved, guarded by their lock stripe.
+     */
+    private final Map<DocumentReference, SaveLease> saves = new ConcurrentHashMap<>();
+
+    /**
+     * The saves in progress of a document.
+     */
+    private static final class SaveLease
+    {
+        private final DocumentReference reference;
+
+        private int count;
+
+        private long deadline;
+
+        SaveLease(DocumentReference reference)
+        {
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * Sets the done state of a task.
+     *
+     * @param documentReference the document holding the task
+     * @param rid the task identifier
+     * @param done the new done state of the task
+     * @return {@code false} if the document holds no such task
+     * @throws AccessDeniedException if the current user is not allowed to edit the document
+     * @throws XWikiException if the document cannot be saved
+     */
+    public boolean setDone(DocumentReference documentReference, String rid, boolean done)
+        throws AccessDeniedException, XWikiException
+    {
+        return !setDone(documentReference, Map.of(rid, done)).isEmpty();
+    }
+
+    /**
+     * Sets the done state of several tasks of a document at once: the document is loaded once and saved once with
+     * all the changed task objects.
+     *
+     * @param documentReference the document holding the tasks
+     * @param statuses the new done state of the tasks, by task identifier
+     * @return the identifiers of the tasks found in the document, whose state is now the requested one
+     * @throws AccessDeniedException if the current user is not allowed to edit the document
+     * @throws XWikiException if the document cannot be saved
+     */
+    public Set<String> setDone(DocumentReference documentReference, Map<String, Boolean> statuses)
+        throws AccessDeniedException, XWikiException
+    {
+        this.authorization.checkAccess(Right.EDIT, documentReference);
+
+        XWikiContext xcontext = this.xcontextProvider.get();
+        String currentWiki = xcontext.getWikiId();
+        DocumentReference reference = documentReference.withoutLocale();
+        Set<String> foundRids = new LinkedHashSet<>();
+        Map<String, Boolean> changedStatuses = new LinkedHashMap<>();
+        Lock lock = getLock(reference);
+        if (!tryLock(lock)) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_DOC,
+                String.format("Timed out waiting for the other changes of [%s]", documentReference));
+        }
+        try {
+            if (!awaitSaves(reference)) {
+                throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                    XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_DOC,
+                    String.format("Interrupted while waiting for the save of [%s]", documentReference));
+            }
+            xcontext.setWikiId(documentReference.getWikiReference().getName());
+            // Change a copy: the cached document is shared, and is only replaced by the copy once it is stored.
+            XWikiDocument document = xcontext.getWiki().getDocument(reference, xcontext).clone();
+            DocumentReference taskClassReference =
+                new DocumentReference(TASK_CLASS_REFERENCE, documentReference.getWikiReference());
+            for (BaseObject taskObject : document.getXObjects(taskClassReference)) {
+                String rid = taskObject != null ? taskObject.getStringValue(RID) : null;
+                if (rid == null || !statuses.containsKey(rid) || !foundRids.add(rid)) {
+                    continue;
+                }
+                boolean done = statuses.get(rid);
+                if (taskObject.getIntValue(DONE) != (done ? 1 : 0)) {
+                    taskObject.setIntValue(DONE, done ? 1 : 0);
+                    changedStatuses.put(rid, done);
+                }
+            }
+            if (!changedStatuses.isEmpty()) {
+                save(document, changedStatuses, xcontext);
+            }
+        } finally {
+            xcontext.setWikiId(currentWiki);
+            lock.unlock();
+        }
+
+        if (!changedStatuses.isEmpty()) {
+            this.observationManager.notify(new TaskStatusChangedEvent(reference, changedStatuses), reference);
+        }
+        return foundRids;
+    }
+
+    /**
+     * Merges the latest task statuses in the given document, which is about to be saved, see
+     * {@link #mergeStatuses(XWikiDocument)}, and holds the status changes of the document until
+     * {@link #endSave(XWikiDocument)} is called, so that the save doesn't overwrite them.
+     *
+     * @param document the document about to be saved
+     * @throws XWikiException if the latest stored document cannot be loaded
+     */
+    public void beginSave(XWikiDocument document) throws XWikiException
+    {
+        DocumentReference reference = document.getDocumentReference().withoutLocale();
+        Lock lock = getLock(reference);
+        if (!tryLock(lock)) {
+            this.logger.warn("Timed out waiting for the task status changes of [{}], which the save may overwrite",
+                reference);
+            mergeStatuses(document);
+            return;
+        }
+        try {
+            SaveLease lease = this.saves.computeIfAbsent(reference, SaveLease::new);
+            lease.count++;
+            lease.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(LOCK_TIMEOUT_SECONDS);
+            getContextSaves().add(lease);
+            mergeStatuses(document);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets the status changes of the given document, held by {@link #beginSave(XWikiDocument)}, proceed once it is
+     * stored.
+     *
+     * @param document the saved document
+     */
+    public void endSave(XWikiDocument document)
+    {
+        releaseSave(document.getDocumentReference().withoutLocale());
+    }
+
+    /**
+     * Ends the saves begun in the current request that were never stored because they failed, so that the status
+     * changes of their documents don't wait for them. Called once the request ends.
+     */
+    public void endSaves()
+    {
+        List<SaveLease> contextSaves = getContextSaves();
+        while (!contextSaves.isEmpty()) {
+            releaseSave(contextSaves.get(0).reference);
+        }
+    }
+
+    /**
+     * Merges the task status changes that happened while the given document was being edited, before it is saved.
+     * <p>
+     * A document saved from a copy taken before a task was toggled must not revert it: the tasks whose done state is
+     * not changed by the save, compared to the version the copy was taken from, get the done state of the same tasks
+     * in the latest stored document. The tasks toggled by the save itself keep their new state.
+     *
+     * @param document the document about to be saved
+     * @throws XWikiException if the latest stored document cannot be loaded
+     */
+    public void mergeStatuses(XWikiDocument document) throws XWikiException
+    {
+        DocumentReference taskClassReference =
+            new DocumentReference(TASK_CLASS_REFERENCE, document.getDocumentReference().getWikiReference());
+        if (document.getXObjects(taskClassReference).isEmpty()) {
+            return;
+        }
+        XWikiContext xcontext = this.xcontextProvider.get();
+        XWikiDocument storedDocument =
+            xcontext.getWiki().getDocument(document.getDocumentReference().withoutLocale(), xcontext);
+        XWikiDocument originalDocument = document.getOriginalDocument();
+        if (storedDocument == document || storedDocument.isNew() || originalDocument == null) {
+            return;
+        }
+        Map<String, Integer> storedStatuses = getStatuses(storedDocument, taskClassReference);
+        Map<String, Integer> originalStatuses = getStatuses(originalDocument, taskClassReference);
+        for (BaseObject taskObject : document.getXObjects(taskClassReference)) {
+            if (taskObject == null) {
+                continue;
+            }
+            Integer done = taskObject.getIntValue(DONE);
+            Integer storedDone = storedStatuses.get(taskObject.getStringValue(RID));
+            if (done.equals(originalStatuses.get(taskObject.getStringValue(RID))) && storedDone != null
+                && !storedDone.equals(done))
+            {
+                taskObject.setIntValue(DONE, storedDone);
+            }
+        }
+    }
+
+    /**
+     * Saves the given copy of a document as a minor edit of the current user, ending the save on failure since the
+     * document events won't.
+     */
+    private void save(XWikiDocument document, Map<String, Boolean> changedStatuses, XWikiContext xcontext)
+        throws XWikiException
+    {
+        List<String> changes = new ArrayList<>();
+        String task = this.localization.getTranslationPlain("checktask.macro.result0");
+        changedStatuses.forEach((rid, done) -> changes.add(String.format("%s %s %s", task, rid,
+            this.localization.getTranslationPlain(done ? "checktask.macro.result1" : "checktask.macro.result2"))));
+        document.setAuthorReference(xcontext.getUserReference());
+        // Only objects changed: make sure that the save creates a revision all the same.
+        document.setMetaDataDirty(true);
+        boolean saved = false;
+        try {
+            xcontext.getWiki().saveDocument(document, String.join(", ", changes), true, xcontext);
+            saved = true;
+        } finally {
+            if (!saved) {
+                releaseSave(document.getDocumentReference().withoutLocale());
+            }
+        }
+    }
+
+    /**
+     * Releases the lease taken on the given document by the current request, if any.
+     */
+    private void releaseSave(DocumentReference reference)
+    {
+        List<SaveLease> contextSaves = getContextSaves();
+        SaveLease contextLease = contextSaves.stream().filter(lease -> lease.reference.equals(reference)).findFirst()
+            .orElse(null);
+        if (contextLease == null) {
+            return;
+        }
+        contextSaves.remove(contextLease);
+        Lock lock = getLock(reference);
+        lock.lock();
+        try {
+            // The lease may have expired and been replaced by the one of another save.
+            SaveLease lease = this.saves.get(reference);
+            if (lease == contextLease && --lease.count <= 0) {
+                this.saves.remove(reference);
+                getCondition(reference).signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the leases of the saves begun by the current request and not ended yet
+     */
+    @SuppressWarnings("unchecked")
+    private List<SaveLease> getContextSaves()
+    {
+        return (List<SaveLease>) this.xcontextProvider.get().computeIfAbsent(CONTEXT_SAVES_KEY,
+            k -> new ArrayList<SaveLease>());
+    }
+
+    private Map<String, Integer> getStatuses(XWikiDocument document, DocumentReference taskClassReference)
+    {
+        Map<String, Integer> statuses = new HashMap<>();
+        for (BaseObject taskObject : document.getXObjects(taskClassReference)) {
+            if (taskObject != null) {
+                statuses.putIfAbsent(taskObject.getStringValue(RID), taskObject.getIntValue(DONE));
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * The status changes of a same document are serialized, whatever the tasks they change, so that each change sees
+     * the previous ones. The changes of different documents only contend when their documents share a lock stripe.
+     */
+    private Lock getLock(DocumentReference documentReference)
+    {
+        return this.locks[Math.floorMod(documentReference.withoutLocale().hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Waits, holding the lock of the document, for the saves of the document in progress to end, or to time out.
+     *
+     * @return {@code false} if the thread was interrupted
+     */
+    private boolean awaitSaves(DocumentReference reference)
+    {
+        SaveLease lease = this.saves.get(reference);
+        while (lease != null) {
+            long remaining = lease.deadline - System.nanoTime();
+            if (remaining <= 0) {
+                // The save failed outside of a request, so it will never end: stop waiting for it.
+                this.saves.remove(reference);
+                return true;
+            }
+            try {
+                getCondition(reference).awaitNanos(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            lease = this.saves.get(reference);
+        }
+        return true;
+    }
+
+    private Condition getCondition(DocumentReference documentReference)
+    {
+        return this.savesEnded[Math.floorMod(documentReference.withoutLocale().hashCode(), LOCK_STRIPES)];
+    }
+
+    private boolean tryLock(Lock lock)
+    {
+        try {
+            return lock.tryLock(LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static Condition[] createConditions(Lock[] locks)
+    {
+        Condition[] conditions = new Condition[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            conditions[i] = locks[i].newCondition();
+        }
+        return conditions;
+    }
+
+    private static Lock[] createLocks()
+    {
+        Lock[] locks = new Lock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+}
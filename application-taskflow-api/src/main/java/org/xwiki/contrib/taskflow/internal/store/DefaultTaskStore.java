@@ -0,0 +1,588 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.Task;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+import org.xwiki.contrib.taskflow.TaskCursor;
+import org.xwiki.contrib.taskflow.TaskPage;
+import org.xwiki.contrib.taskflow.TaskQuery;
+import org.xwiki.contrib.taskflow.TaskStore;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Default {@link TaskStore}, translating the typed queries into XWQL over the task class.
+ * <p>
+ * Only the tasks of the documents the current user is allowed to view are returned and counted. The view right is
+ * checked on the query results, once per document, and the rows are read in batches until the requested page is
+ * complete. The administrators of the wiki, who can view all its documents, skip these checks: their pages are read
+ * directly at their offset.
+ * <p>
+ * For the other users, the offset counts the viewable tasks only, so {@link #search(TaskQuery)} reads the rows from
+ * the first one and getting a page costs more the further it is in the list. {@link #seek(TaskQuery)} doesn't have
+ * this cost, since the database seeks the first task of the page whoever the user is.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component
+@Singleton
+public class DefaultTaskStore implements TaskStore
+{
+    private static final String TASK_CLASS_NAME = "Macros.CheckboxedTask.Code.TaskClass";
+
+    private static final String SELECT = "select doc.fullName, doc.title, task.rid, task.task, task.creator, "
+        + "task.responsible, task.dueDate, task.done";
+
+    private static final String FROM = String.format(" from Document doc, doc.object(%s) as task", TASK_CLASS_NAME);
+
+    private static final String ORDER_BY = " order by ";
+
+    private static final String TIE_BREAKER = "doc.fullName, task.rid";
+
+    private static final String ASC = " asc";
+
+    private static final String DESC = " desc";
+
+    private static final String LIKE_ANY = "%";
+
+    private static final String USERS_SEPARATOR = ",";
+
+    private static final String WHERE = " where ";
+
+    private static final String AND = " and ";
+
+    private static final String RESPONSIBLE = "responsible";
+
+    private static final String PARTICIPANT = "participant";
+
+    private static final String PARTICIPANT_ASSIGNMENT = "participantAssignment";
+
+    private static final Pattern CLASS_NAME_PATTERN = Pattern.compile("\\w+(\\.\\w+)+");
+
+    /**
+     * The minimum number of rows read at once when filtering the tasks the current user is allowed to view.
+     */
+    private static final int MIN_BATCH_SIZE = 100;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private TaskFlowConfiguration configuration;
+
+    @Inject
+    private TaskAssignmentStore assignmentStore;
+
+    @Inject
+    private TaskCountCache countCache;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Override
+    public List<Task> search(TaskQuery taskQuery) throws QueryException
+    {
+        long startTime = System.currentTimeMillis();
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        String where = getWhereClause(taskQuery, parameters);
+        if (where == null) {
+            return Collections.emptyList();
+        }
+        List<Task> tasks = toTasks(searchViewable(SELECT + FROM + where + getOrderClause(taskQuery), parameters,
+            taskQuery.getOffset(), taskQuery.getLimit()));
+        this.logger.debug("Found [{}] tasks in [{}] ms.", tasks.size(), System.currentTimeMillis() - startTime);
+        return tasks;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The tasks with a value for the sort field and those without are sought separately, each with a range condition
+     * on the sort key, the document and the identifier of the tasks, so that the database seeks the first task of the
+     * page in its index instead of scanning and skipping the tasks of the previous pages. The page is completed with
+     * the tasks without a value once those with a value are exhausted.
+     */
+    @Override
+    public TaskPage seek(TaskQuery taskQuery) throws QueryException
+    {
+        long startTime = System.currentTimeMillis();
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        String where = getWhereClause(taskQuery, parameters);
+        if (where == null) {
+            return new TaskPage(Collections.emptyList(), null);
+        }
+        String property = getSortProperty(taskQuery.getSortField());
+        TaskCursor after = taskQuery.getAfter();
+        if (after != null && after.getSortField() != taskQuery.getSortField()) {
+            // The cursor comes from a list sorted differently: start from the first page.
+            after = null;
+        }
+        // One more task than requested tells whether there is a next page.
+        int limit = taskQuery.getLimit() >= 0 ? taskQuery.getLimit() + 1 : -1;
+        List<Object[]> rows = new ArrayList<>();
+        boolean afterValue = after == null || after.getSortValue() != null;
+        if (property != null && afterValue) {
+            rows.addAll(seekViewable(and(where, property + " is not null"), parameters, taskQuery.getSortField(),
+                property, taskQuery.isAscending(), after, limit));
+        }
+        if (limit < 0 || rows.size() < limit) {
+            rows.addAll(seekViewable(property != null ? and(where, property + " is null") : where, parameters,
+                taskQuery.getSortField(), null, true, property != null && afterValue ? null : after,
+                limit < 0 ? -1 : limit - rows.size()));
+        }
+
+        TaskCursor next = null;
+        if (limit >= 0 && rows.size() == limit) {
+            rows.remove(rows.size() - 1);
+            if (rows.isEmpty()) {
+                next = after;
+            } else {
+                Object[] lastRow = rows.get(rows.size() - 1);
+                next = new TaskCursor(taskQuery.getSortField(), getSortValue(taskQuery.getSortField(), lastRow),
+                    (String) lastRow[0], (String) lastRow[2]);
+            }
+        }
+        List<Task> tasks = toTasks(rows);
+        this.logger.debug("Sought [{}] tasks in [{}] ms.", tasks.size(), System.currentTimeMillis() - startTime);
+        return new TaskPage(tasks, next);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The tasks of a wiki administrator, who can view all the documents, are counted by the database with a single
+     * scalar query. For the other users, the tasks are counted per document, so that only the tasks of the documents
+     * the current user is allowed to view are counted. The counts are cached until a document holding tasks is saved
+     * or deleted, see {@link TaskCountCache}.
+     */
+    @Override
+    public long count(TaskQuery taskQuery) throws QueryException
+    {
+        Long cachedCount = this.countCache.get(taskQuery);
+        if (cachedCount != null) {
+            return cachedCount;
+        }
+        // Retrieved before counting, so that a count racing with a change is not cached as up to date.
+        long version = this.countCache.getVersion();
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        String where = getWhereClause(taskQuery, parameters);
+        long count = 0L;
+        if (where != null && isWikiAdmin()) {
+            // The join yields one row per task object.
+            Query query = this.queryManager.createQuery("select count(doc.id)" + FROM + where, Query.XWQL);
+            parameters.forEach(query::bindValue);
+            List<Number> result = query.execute();
+            count = result.isEmpty() || result.get(0) == null ? 0L : result.get(0).longValue();
+        } else if (where != null) {
+            Query query = this.queryManager.createQuery(
+                "select doc.fullName, count(doc.id)" + FROM + where + " group by doc.fullName", Query.XWQL);
+            parameters.forEach(query::bindValue);
+            Predicate<Object[]> viewable = newViewableFilter();
+            for (Object[] row : query.<Object[]>execute()) {
+                if (viewable.test(row)) {
+                    count += ((Number) row[1]).longValue();
+                }
+            }
+        }
+        this.countCache.set(taskQuery, version, count);
+        return count;
+    }
+
+    /**
+     * @param taskQuery the query to translate
+     * @param parameters the map to fill with the values of the query parameters
+     * @return the where clause of the given query, {@code null} if no task can match it
+     */
+    private String getWhereClause(TaskQuery taskQuery, Map<String, Object> parameters)
+    {
+        List<String> constraints = new ArrayList<>();
+        if (taskQuery.getResponsible() != null) {
+            constraints.add(
+                this.assignmentStore.getAssignedTaskConstraint(RESPONSIBLE, taskQuery.getResponsible(), parameters));
+        }
+        if (taskQuery.getCreator() != null) {
+            constraints.add("task.creator = :creator");
+            parameters.put("creator", this.serializer.serialize(taskQuery.getCreator()));
+        }
+        if (taskQuery.getParticipant() != null) {
+            constraints.add(String.format("(task.creator = :%1$s or %2$s)", PARTICIPANT, this.assignmentStore
+                .getAssignedTaskConstraint(PARTICIPANT_ASSIGNMENT, taskQuery.getParticipant(), parameters)));
+            parameters.put(PARTICIPANT, this.serializer.serialize(taskQuery.getParticipant()));
+        }
+        if (taskQuery.getDocument() != null) {
+            constraints.add("doc.fullName = :document");
+            parameters.put("document", this.localSerializer.serialize(taskQuery.getDocument()));
+        }
+        if (!addDocumentFilter(taskQuery, constraints, parameters)) {
+            return null;
+        }
+        for (int i = 0; i < taskQuery.getExcludedDocumentPrefixes().size(); i++) {
+            constraints.add(String.format("doc.fullName not like :excludedPrefix%d", i));
+            parameters.put("excludedPrefix" + i, taskQuery.getExcludedDocumentPrefixes().get(i) + LIKE_ANY);
+        }
+        if (StringUtils.isNotEmpty(taskQuery.getContent())) {
+            constraints.add("lower(task.task) like :content");
+            parameters.put("content", LIKE_ANY + taskQuery.getContent().toLowerCase() + LIKE_ANY);
+        }
+        if (taskQuery.isDueDateRequired()) {
+            constraints.add("task.dueDate is not null");
+        }
+        if (taskQuery.getDueFrom() != null) {
+            constraints.add("task.dueDate >= :dueFrom");
+            parameters.put("dueFrom", taskQuery.getDueFrom());
+        }
+        if (taskQuery.getDueTo() != null) {
+            constraints.add("task.dueDate < :dueTo");
+            parameters.put("dueTo", taskQuery.getDueTo());
+        }
+        if (taskQuery.getDone() != null) {
+            constraints.add(taskQuery.getDone() ? "task.done = 1" : "task.done <> 1");
+        }
+        if (taskQuery.isProtectedExcluded()) {
+            constraints.add("task.protected <> 1");
+        }
+        if (taskQuery.isHiddenExcluded()) {
+            constraints.add("(doc.hidden <> true or doc.hidden is null)");
+        }
+        return constraints.isEmpty() ? "" : WHERE + String.join(AND, constraints);
+    }
+
+    /**
+     * Adds the constraint on the document prefix and the project, which are combined with a logical OR.
+     *
+     * @param taskQuery the query to translate
+     * @param constraints the list of constraints to complete
+     * @param parameters the map to fill with the values of the query parameters
+     * @return {@code false} if no task can match the query
+     */
+    private boolean addDocumentFilter(TaskQuery taskQuery, List<String> constraints, Map<String, Object> parameters)
+    {
+        List<String> documentConstraints = new ArrayList<>();
+        if (StringUtils.isNotEmpty(taskQuery.getDocumentPrefix())) {
+            documentConstraints.add("doc.fullName like :documentPrefix");
+            parameters.put("documentPrefix", taskQuery.getDocumentPrefix() + LIKE_ANY);
+        }
+        if (taskQuery.getProject() != null) {
+            String projectClass = getProjectClass();
+            if (projectClass != null) {
+                // A subquery with a bound value, whatever the number of documents of the project. The class and the
+                // property are validated identifiers, so that the property is read with the type defined by the class.
+                documentConstraints.add(String.format("doc.fullName in (select projectDoc.fullName from Document "
+                    + "projectDoc, projectDoc.object(%s) as projectObj where projectObj.%s = :project)", projectClass,
+                    this.configuration.getProjectProperty()));
+                parameters.put("project", this.localSerializer.serialize(taskQuery.getProject()));
+            } else if (documentConstraints.isEmpty()) {
+                return false;
+            }
+        }
+        if (!documentConstraints.isEmpty()) {
+            constraints.add("(" + String.join(" or ", documentConstraints) + ")");
+        }
+        return true;
+    }
+
+    /**
+     * @return the local reference of the configured project class, {@code null} if the configuration is invalid
+     */
+    private String getProjectClass()
+    {
+        String projectClass = this.configuration.getProjectClass();
+        String projectProperty = this.configuration.getProjectProperty();
+        String serializedClass = StringUtils.isBlank(projectClass) ? null
+            : this.localSerializer.serialize(this.resolver.resolve(projectClass));
+        if (serializedClass == null || !CLASS_NAME_PATTERN.matcher(serializedClass).matches()
+            || !StringUtils.isAlphanumeric(projectProperty)) {
+            this.logger.warn("Invalid project class [{}] or property [{}], no task matches the project filter.",
+                projectClass, projectProperty);
+            return null;
+        }
+        return serializedClass;
+    }
+
+    private String getOrderClause(TaskQuery taskQuery)
+    {
+        String property = getSortProperty(taskQuery.getSortField());
+        if (property == null) {
+            return "";
+        }
+        // Sort the tasks with the same value in a stable order, so that the pages don't overlap.
+        return ORDER_BY + property + (taskQuery.isAscending() ? ASC : DESC) + ", " + TIE_BREAKER;
+    }
+
+    private String getSortProperty(TaskQuery.SortField sortField)
+    {
+        if (sortField == null) {
+            return null;
+        }
+        switch (sortField) {
+            case DOCUMENT_TITLE:
+                return "doc.title";
+            case CONTENT:
+                return "task.task";
+            case RESPONSIBLE:
+                return "task.responsible";
+            case DONE:
+                return "task.done";
+            case DUE_DATE:
+            default:
+                return "task.dueDate";
+        }
+    }
+
+    private Object getSortValue(TaskQuery.SortField sortField, Object[] row)
+    {
+        if (sortField == null) {
+            return null;
+        }
+        switch (sortField) {
+            case DOCUMENT_TITLE:
+                return row[1];
+            case CONTENT:
+                return row[3];
+            case RESPONSIBLE:
+                return row[5];
+            case DONE:
+                return row[7] != null ? ((Number) row[7]).intValue() : null;
+            case DUE_DATE:
+            default:
+                return row[6] != null ? new Date(((Date) row[6]).getTime()) : null;
+        }
+    }
+
+    /**
+     * Seeks the tasks the current user is allowed to view following the given cursor, reading the rows in batches
+     * until enough tasks are found.
+     *
+     * @param where the where clause of the query, including the constraint selecting the tasks with or without a
+     *     value for the sort field
+     * @param parameters the values of the parameters of the where clause
+     * @param sortField the field the tasks are sorted on
+     * @param property the property the tasks are sorted on, {@code null} to sort them by document and identifier only
+     * @param ascending the order of the sort property
+     * @param after the cursor of the task to start after, {@code null} to start from the first task of the segment
+     * @param limit the maximum number of tasks to return, a negative value for no limit
+     * @return the rows of the tasks following the cursor
+     */
+    private List<Object[]> seekViewable(String where, Map<String, Object> parameters, TaskQuery.SortField sortField,
+        String property, boolean ascending, TaskCursor after, int limit) throws QueryException
+    {
+        Predicate<Object[]> viewable = newViewableFilter();
+        List<Object[]> rows = new ArrayList<>();
+        TaskCursor cursor = after;
+        while (true) {
+            int batchSize = limit < 0 ? -1 : Math.max(limit - rows.size(), MIN_BATCH_SIZE);
+            List<Object[]> batch = seek(where, parameters, property, ascending, cursor, batchSize);
+            for (Object[] row : batch) {
+                if ((limit < 0 || rows.size() < limit) && viewable.test(row)) {
+                    rows.add(row);
+                }
+            }
+            if (batchSize < 0 || batch.size() < batchSize || rows.size() >= limit) {
+                return rows;
+            }
+            Object[] lastRow = batch.get(batch.size() - 1);
+            cursor = new TaskCursor(sortField, property != null ? getSortValue(sortField, lastRow) : null,
+                (String) lastRow[0], (String) lastRow[2]);
+        }
+    }
+
+    /**
+     * Seeks the tasks following the given cursor.
+     *
+     * @param where the where clause of the query
+     * @param parameters the values of the parameters of the where clause
+     * @param property the property the tasks are sorted on, {@code null} to sort them by document and identifier only
+     * @param ascending the order of the sort property
+     * @param after the cursor of the task to start after, {@code null} to start from the first task
+     * @param limit the maximum number of tasks to return, a negative value for no limit
+     * @return the rows of the tasks following the cursor
+     */
+    private List<Object[]> seek(String where, Map<String, Object> parameters, String property, boolean ascending,
+        TaskCursor after, int limit) throws QueryException
+    {
+        Map<String, Object> seekParameters = new LinkedHashMap<>(parameters);
+        List<String> constraints = new ArrayList<>();
+        if (after != null) {
+            String tie = "(doc.fullName > :afterDocument or (doc.fullName = :afterDocument and task.rid > :afterRid))";
+            seekParameters.put("afterDocument", after.getDocument());
+            seekParameters.put("afterRid", after.getRid());
+            if (property != null) {
+                tie = String.format("(%1$s %2$s :afterValue or (%1$s = :afterValue and %3$s))", property,
+                    ascending ? ">" : "<", tie);
+                seekParameters.put("afterValue", after.getSortValue());
+            }
+            constraints.add(tie);
+        }
+        String seekWhere = constraints.isEmpty() ? where : and(where, String.join(AND, constraints));
+        String order = ORDER_BY + (property != null ? property + (ascending ? ASC : DESC) + ", " : "") + TIE_BREAKER;
+        Query query = this.queryManager.createQuery(SELECT + FROM + seekWhere + order, Query.XWQL);
+        seekParameters.forEach(query::bindValue);
+        if (limit >= 0) {
+            query.setLimit(limit);
+        }
+        return query.execute();
+    }
+
+    /**
+     * Runs the given query, keeping only the tasks of the documents the current user is allowed to view. The offset
+     * and the limit apply to these tasks, so the rows are read in batches from the first one until the page is
+     * complete.
+     */
+    private List<Object[]> searchViewable(String statement, Map<String, Object> parameters, int offset, int limit)
+        throws QueryException
+    {
+        if (isWikiAdmin()) {
+            // All the tasks are viewable: let the database skip the previous pages.
+            Query query = this.queryManager.createQuery(statement, Query.XWQL);
+            parameters.forEach(query::bindValue);
+            query.setOffset(offset);
+            if (limit >= 0) {
+                query.setLimit(limit);
+            }
+            return query.execute();
+        }
+        Predicate<Object[]> viewable = newViewableFilter();
+        // A single batch covers the requested page when all the tasks before and in the page are viewable.
+        int batchSize = limit >= 0 ? Math.max(offset + limit, MIN_BATCH_SIZE) : -1;
+        List<Object[]> rows = new ArrayList<>();
+        int skipped = 0;
+        int batchOffset = 0;
+        while (true) {
+            Query query = this.queryManager.createQuery(statement, Query.XWQL);
+            parameters.forEach(query::bindValue);
+            query.setOffset(batchOffset);
+            if (batchSize >= 0) {
+                query.setLimit(batchSize);
+            }
+            List<Object[]> batch = query.execute();
+            for (Object[] row : batch) {
+                if ((limit < 0 || rows.size() < limit) && viewable.test(row)) {
+                    if (skipped < offset) {
+                        skipped++;
+                    } else {
+                        rows.add(row);
+                    }
+                }
+            }
+            if (batchSize < 0 || batch.size() < batchSize || rows.size() >= limit) {
+                return rows;
+            }
+            batchOffset += batch.size();
+        }
+    }
+
+    /**
+     * @return a filter keeping the rows of the tasks whose document the current user is allowed to view, checking the
+     *     right once per document
+     */
+    private Predicate<Object[]> newViewableFilter()
+    {
+        if (isWikiAdmin()) {
+            return row -> true;
+        }
+        WikiReference wikiReference = new WikiReference(this.xcontextProvider.get().getWikiId());
+        Map<String, Boolean> viewableDocuments = new HashMap<>();
+        return row -> viewableDocuments.computeIfAbsent((String) row[0],
+            fullName -> this.authorization.hasAccess(Right.VIEW, this.resolver.resolve(fullName, wikiReference)));
+    }
+
+    /**
+     * @return {@code true} if the current user administers the current wiki, and can thus view all its documents
+     */
+    private boolean isWikiAdmin()
+    {
+        return this.authorization.hasAccess(Right.ADMIN, new WikiReference(this.xcontextProvider.get().getWikiId()));
+    }
+
+    private static String and(String where, String constraint)
+    {
+        return (where.isEmpty() ? WHERE : where + AND) + constraint;
+    }
+
+    private List<Task> toTasks(List<Object[]> rows)
+    {
+        WikiReference wikiReference = new WikiReference(this.xcontextProvider.get().getWikiId());
+        List<Task> tasks = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            tasks.add(new Task(this.resolver.resolve((String) row[0], wikiReference), (String) row[1],
+                (String) row[2], (String) row[3], (String) row[4], parseUsers((String) row[5]), (Date) row[6],
+                row[7] != null && ((Number) row[7]).intValue() == 1));
+        }
+        return tasks;
+    }
+
+    private List<String> parseUsers(String usernames)
+    {
+        if (StringUtils.isBlank(usernames)) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(usernames.split(USERS_SEPARATOR))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .collect(Collectors.toList());
+    }
+}
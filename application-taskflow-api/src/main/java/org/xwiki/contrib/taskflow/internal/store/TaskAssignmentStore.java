@@ -0,0 +1,293 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.store;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Maintains and queries the task assignments: one object of the custom mapped {@code TaskAssignmentClass} per task
+ * and responsible user, stored in the indexed {@code taskflow_assignment} table, so that the tasks of a user are found
+ * with an equality lookup instead of a substring match over the list of responsible users.
+ * <p>
+ * XWiki only stores the objects of a custom mapped class when {@code xwiki.store.hibernate.custommapping.dynamic=1}
+ * is set in {@code xwiki.cfg}, which is not the default. Without it, the assignments are neither created nor queried:
+ * the tasks of a user are matched on the list of responsible users instead, and a warning is logged once.
+ * <p>
+ * The assignments of the tasks saved before they were introduced, or while the custom mappings were disabled, are
+ * created in the background by {@link #backfill(String)}, so that reading the tasks of a user never writes to the
+ * database.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskAssignmentStore.class)
+@Singleton
+public class TaskAssignmentStore
+{
+    private static final String ASSIGNMENT_CLASS_NAME = "Macros.CheckboxedTask.Code.TaskAssignmentClass";
+
+    private static final String TASK_CLASS_NAME = "Macros.CheckboxedTask.Code.TaskClass";
+
+    private static final List<String> CODE_SPACE = List.of("Macros", "CheckboxedTask", "Code");
+
+    private static final LocalDocumentReference TASK_CLASS_REFERENCE =
+        new LocalDocumentReference(CODE_SPACE, "TaskClass");
+
+    private static final LocalDocumentReference ASSIGNMENT_CLASS_REFERENCE =
+        new LocalDocumentReference(CODE_SPACE, "TaskAssignmentClass");
+
+    private static final String RID = "rid";
+
+    private static final String USER = "user";
+
+    private static final String USERS_SEPARATOR = ",";
+
+    private static final String KEY_SEPARATOR = "\n";
+
+    private static final String LIKE_ANY = "%";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private TaskFlowMetrics metrics;
+
+    private final AtomicBoolean disabledWarningLogged = new AtomicBoolean();
+
+    /**
+     * @return {@code true} if the assignment objects can be stored, i.e. if the dynamic custom mappings are enabled
+     */
+    public boolean isEnabled()
+    {
+        XWiki xwiki = this.xcontextProvider.get().getWiki();
+        boolean enabled = xwiki.hasCustomMappings() && xwiki.hasDynamicCustomMappings();
+        if (!enabled && this.disabledWarningLogged.compareAndSet(false, true)) {
+            this.logger.warn("The task assignments are disabled because the custom mappings are not enabled. Set "
+                + "[xwiki.store.hibernate.custommapping.dynamic=1] in xwiki.cfg so that the tasks of a user are looked "
+                + "up in the indexed [taskflow_assignment] table instead of the list of responsible users.");
+        }
+        return enabled;
+    }
+
+    /**
+     * Updates the assignment objects of the given document to match the responsible users of its task objects.
+     *
+     * @param document the document to update, before it is saved
+     * @param context the XWiki context
+     * @return {@code true} if the assignment objects were modified, {@code false} if they are up to date or if the
+     *         assignments are disabled
+     * @throws XWikiException if an assignment object cannot be created
+     */
+    public boolean synchronize(XWikiDocument document, XWikiContext context) throws XWikiException
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+        WikiReference wikiReference = document.getDocumentReference().getWikiReference();
+        DocumentReference taskClassRef = new DocumentReference(TASK_CLASS_REFERENCE, wikiReference);
+        DocumentReference assignmentClassRef = new DocumentReference(ASSIGNMENT_CLASS_REFERENCE, wikiReference);
+
+        Set<String> expectedKeys = new LinkedHashSet<>();
+        for (BaseObject taskObj : document.getXObjects(taskClassRef)) {
+            if (taskObj == null || StringUtils.isBlank(taskObj.getStringValue(RID))) {
+                continue;
+            }
+            for (String username : StringUtils.split(taskObj.getLargeStringValue("responsible"), USERS_SEPARATOR)) {
+                if (StringUtils.isNotBlank(username)) {
+                    expectedKeys
+                        .add(taskObj.getStringValue(RID) + KEY_SEPARATOR + getStoredUser(username, wikiReference));
+                }
+            }
+        }
+
+        boolean modified = false;
+        for (BaseObject assignmentObj : new ArrayList<>(document.getXObjects(assignmentClassRef))) {
+            if (assignmentObj != null && !expectedKeys.remove(
+                assignmentObj.getStringValue(RID) + KEY_SEPARATOR + assignmentObj.getStringValue(USER))) {
+                document.removeXObject(assignmentObj);
+                modified = true;
+            }
+        }
+        for (String key : expectedKeys) {
+            BaseObject assignmentObj = document.newXObject(assignmentClassRef, context);
+            assignmentObj.setStringValue(RID, StringUtils.substringBefore(key, KEY_SEPARATOR));
+            assignmentObj.setStringValue(USER, StringUtils.substringAfter(key, KEY_SEPARATOR));
+            modified = true;
+        }
+        return modified;
+    }
+
+    /**
+     * Resolves a responsible user the way the tasks of a user are queried: the responsible users are written in the
+     * macro with or without the wiki prefix, and a user written without it matches the users of any wiki with the
+     * same local reference, as the substring match used when the assignments are disabled does.
+     *
+     * @param username a responsible user, as written in a task
+     * @param wikiReference the wiki of the document holding the task
+     * @return the user as stored in the assignments: its local reference when it belongs to the wiki of the document,
+     *         its full reference otherwise
+     */
+    public String getStoredUser(String username, WikiReference wikiReference)
+    {
+        DocumentReference userReference = this.resolver.resolve(username.trim(), wikiReference);
+        return wikiReference.equals(userReference.getWikiReference()) ? this.localSerializer.serialize(userReference)
+            : this.serializer.serialize(userReference);
+    }
+
+    /**
+     * @param userReference a user
+     * @return the forms under which the assignments of the given user are stored, see
+     *         {@link #getStoredUser(String, WikiReference)}: its local reference for the tasks of its own wiki or
+     *         written without the wiki prefix, its full reference for the tasks of the other wikis
+     */
+    public List<String> getStoredUsers(DocumentReference userReference)
+    {
+        return List.of(this.localSerializer.serialize(userReference), this.serializer.serialize(userReference));
+    }
+
+    /**
+     * @param userParameter the name of the query parameter to bind
+     * @param userReference the responsible user
+     * @param parameters the map to fill with the value of the query parameter
+     * @return a constraint matching the tasks, selected as {@code task} from the document {@code doc}, that are
+     *         assigned to the given user, as an XWQL subquery over the assignment objects of the document, which are
+     *         stored in the indexed assignment table, or as a substring match over the list of responsible users when
+     *         the assignments are disabled
+     */
+    public String getAssignedTaskConstraint(String userParameter, DocumentReference userReference,
+        Map<String, Object> parameters)
+    {
+        if (!isEnabled()) {
+            // The responsible users are stored as written in the macro, with or without the wiki prefix.
+            parameters.put(userParameter, LIKE_ANY + this.localSerializer.serialize(userReference) + LIKE_ANY);
+            return String.format("task.responsible like :%s", userParameter);
+        }
+        parameters.put(userParameter, getStoredUsers(userReference));
+        return String.format("exists (select assignmentDoc.fullName from Document assignmentDoc, "
+            + "assignmentDoc.object(%s) as assignment where assignmentDoc.fullName = doc.fullName "
+            + "and assignment.rid = task.rid and assignment.user in (:%s))", ASSIGNMENT_CLASS_NAME, userParameter);
+    }
+
+    /**
+     * Creates the assignments of the tasks saved before the assignments were introduced. Called by the hourly
+     * scheduler job, which records in the reminder ledger of the wiki that it succeeded so that the documents are not
+     * scanned again, and tries again on its next run if it fails.
+     * <p>
+     * The assignments of every document holding tasks are synchronized, since a task can have some of its
+     * responsible users assigned but not all, or share its identifier with a task of another document. Only the
+     * documents whose assignment objects change are saved, without creating a new revision.
+     *
+     * @param wikiId the identifier of the wiki
+     * @return {@code true} if the assignments of all the documents were created, {@code false} if some failed or if
+     *         the assignments are disabled
+     */
+    public boolean backfill(String wikiId)
+    {
+        if (!isEnabled()) {
+            return false;
+        }
+        try {
+            return backfillDocuments(wikiId);
+        } catch (Exception e) {
+            this.logger.error("Failed to create the missing task assignments of wiki [{}]", wikiId, e);
+            return false;
+        }
+    }
+
+    private boolean backfillDocuments(String wikiId) throws QueryException
+    {
+        long startTime = System.currentTimeMillis();
+        Query query = this.queryManager.createQuery(
+            "select distinct obj.name from BaseObject obj where obj.className = :className", Query.HQL);
+        query.setWiki(wikiId);
+        query.bindValue("className", TASK_CLASS_NAME);
+        this.metrics.recordReminderQuery();
+
+        XWikiContext context = this.xcontextProvider.get();
+        XWiki xwiki = context.getWiki();
+        WikiReference wikiReference = new WikiReference(wikiId);
+        int count = 0;
+        int failures = 0;
+        for (Object documentName : query.execute()) {
+            DocumentReference documentReference = this.resolver.resolve((String) documentName, wikiReference);
+            try {
+                XWikiDocument document = xwiki.getDocument(documentReference, context).clone();
+                if (synchronize(document, context)) {
+                    // Save the objects without a new revision: the content and the metadata are left unchanged.
+                    document.setContentDirty(false);
+                    document.setMetaDataDirty(false);
+                    xwiki.saveDocument(document, document.getComment(), document.isMinorEdit(), context);
+                    count++;
+                }
+            } catch (XWikiException e) {
+                failures++;
+                this.logger.warn("Failed to create the task assignments of [{}]", documentReference, e);
+            }
+        }
+        this.logger.debug("Updated the task assignments of [{}] documents of wiki [{}] ([{}] failed) in [{}] ms.",
+            count, wikiId, failures, System.currentTimeMillis() - startTime);
+        return failures == 0;
+    }
+}
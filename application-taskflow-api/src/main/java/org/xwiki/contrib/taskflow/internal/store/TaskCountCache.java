@@ -0,0 +1,270 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.store;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+import org.xwiki.contrib.taskflow.TaskQuery;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Caches the number of tasks matching the criteria of the task queries, so that paging through the task report or
+ * sorting it doesn't count the tasks again.
+ * <p>
+ * Each wiki has a version, incremented each time a document holding tasks is saved or deleted. A cached count is valid
+ * only for the version it was computed for, except for the queries without a task content or due date filter when an
+ * estimated total is allowed by the configuration: their count is then reused until it gets too old, see
+ * {@link #isApproximate(TaskQuery)}.
+ * <p>
+ * Since only the tasks a user is allowed to view are counted, the versions of all the wikis are also incremented each
+ * time a document holding rights or group members is saved or deleted: the rights and the groups of the main wiki
+ * apply to the users of the other wikis. The counts can still lag behind the rights inherited from elsewhere, e.g.
+ * a user added to a group by an authenticator without saving the group.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = TaskCountCache.class)
+@Singleton
+public class TaskCountCache implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 1000;
+
+    private static final LocalDocumentReference TASK_CLASS_REFERENCE =
+        new LocalDocumentReference(List.of("Macros", "CheckboxedTask", "Code"), "TaskClass");
+
+    private static final String XWIKI_SPACE = "XWiki";
+
+    private static final List<LocalDocumentReference> RIGHTS_CLASS_REFERENCES =
+        List.of(new LocalDocumentReference(XWIKI_SPACE, "XWikiRights"),
+            new LocalDocumentReference(XWIKI_SPACE, "XWikiGlobalRights"),
+            new LocalDocumentReference(XWIKI_SPACE, "XWikiGroups"));
+
+    private static final char SEPARATOR = '|';
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private TaskFlowConfiguration configuration;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private Cache<CachedCount> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("taskflow.taskcount", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the task count cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @return the current version of the tasks of the current wiki, to be passed to {@link #set(TaskQuery, long, long)}
+     *     once the count is computed
+     */
+    public long getVersion()
+    {
+        return getVersion(this.xcontextProvider.get().getWikiId()).get();
+    }
+
+    /**
+     * @param query the criteria of the tasks to count
+     * @return the cached number of tasks of the current wiki matching the criteria of the query, {@code null} if it
+     *     has to be computed
+     */
+    public Long get(TaskQuery query)
+    {
+        String wikiId = this.xcontextProvider.get().getWikiId();
+        CachedCount cachedCount = this.cache.get(getKey(wikiId, query));
+        if (cachedCount == null) {
+            return null;
+        }
+        if (cachedCount.version == getVersion(wikiId).get()) {
+            return cachedCount.count;
+        }
+        long maxAge = this.configuration.getReportEstimatedTotalMaxAge() * MILLIS_PER_SECOND;
+        if (maxAge > 0 && isEstimable(query) && System.currentTimeMillis() - cachedCount.time < maxAge) {
+            return cachedCount.count;
+        }
+        return null;
+    }
+
+    /**
+     * @param query the criteria of the counted tasks
+     * @param version the version of the tasks of the current wiki retrieved before counting them
+     * @param count the number of tasks of the current wiki matching the criteria of the query
+     */
+    public void set(TaskQuery query, long version, long count)
+    {
+        String wikiId = this.xcontextProvider.get().getWikiId();
+        this.cache.set(getKey(wikiId, query), new CachedCount(count, version, System.currentTimeMillis()));
+    }
+
+    /**
+     * @param query the criteria of the counted tasks
+     * @return {@code true} if the count of the given query may be an estimate that misses the latest changes
+     */
+    public boolean isApproximate(TaskQuery query)
+    {
+        return this.configuration.getReportEstimatedTotalMaxAge() > 0 && isEstimable(query);
+    }
+
+    /**
+     * Invalidates the counts of the wiki of the given document if it holds tasks, before or after the change, and the
+     * counts of all the wikis if it holds rights or group members.
+     *
+     * @param document the document that was saved or deleted
+     */
+    public void invalidate(XWikiDocument document)
+    {
+        if (holdsRights(document)) {
+            this.versions.values().forEach(AtomicLong::incrementAndGet);
+        } else if (hasObjects(document, TASK_CLASS_REFERENCE)) {
+            getVersion(document.getDocumentReference().getWikiReference().getName()).incrementAndGet();
+        }
+    }
+
+    /**
+     * @param document a document that was saved or deleted
+     * @return {@code true} if the document holds rights or group members, before or after the change, which can change
+     *     the tasks the users are allowed to view in all the wikis
+     */
+    static boolean holdsRights(XWikiDocument document)
+    {
+        return RIGHTS_CLASS_REFERENCES.stream().anyMatch(classReference -> hasObjects(document, classReference));
+    }
+
+    private static boolean hasObjects(XWikiDocument document, LocalDocumentReference classReference)
+    {
+        DocumentReference reference =
+            new DocumentReference(classReference, document.getDocumentReference().getWikiReference());
+        return !document.getXObjects(reference).isEmpty() || (document.getOriginalDocument() != null
+            && !document.getOriginalDocument().getXObjects(reference).isEmpty());
+    }
+
+    private AtomicLong getVersion(String wikiId)
+    {
+        return this.versions.computeIfAbsent(wikiId, k -> new AtomicLong());
+    }
+
+    private boolean isEstimable(TaskQuery query)
+    {
+        return StringUtils.isEmpty(query.getContent()) && query.getDueFrom() == null && query.getDueTo() == null;
+    }
+
+    /**
+     * @return a key identifying the criteria of the given query, whatever the order they were set in, ignoring its
+     *     sort order and page; the counts are kept per user, since only the tasks a user is allowed to view are counted
+     */
+    private String getKey(String wikiId, TaskQuery query)
+    {
+        StringBuilder key = new StringBuilder(wikiId);
+        append(key, this.xcontextProvider.get().getUserReference());
+        append(key, query.getResponsible());
+        append(key, query.getCreator());
+        append(key, query.getParticipant());
+        append(key, query.getDocument());
+        append(key, query.getDocumentPrefix());
+        append(key, String.join(",", new TreeSet<>(query.getExcludedDocumentPrefixes())));
+        append(key, query.getProject());
+        // The content is matched ignoring the case.
+        append(key, StringUtils.lowerCase(query.getContent()));
+        append(key, query.getDueFrom() != null ? query.getDueFrom().getTime() : null);
+        append(key, query.getDueTo() != null ? query.getDueTo().getTime() : null);
+        append(key, query.isDueDateRequired());
+        append(key, query.getDone());
+        append(key, query.isProtectedExcluded());
+        append(key, query.isHiddenExcluded());
+        return key.toString();
+    }
+
+    private void append(StringBuilder key, Object value)
+    {
+        key.append(SEPARATOR);
+        if (value instanceof DocumentReference) {
+            key.append(this.serializer.serialize((DocumentReference) value));
+        } else if (value != null) {
+            // Escape the separator so that distinct criteria never share a key.
+            key.append(StringUtils.replaceEach(value.toString(), new String[] {"\\", "|"},
+                new String[] {"\\\\", "\\|"}));
+        }
+    }
+
+    /**
+     * A count with the version of the tasks and the time it was computed for.
+     */
+    private static final class CachedCount
+    {
+        private final long count;
+
+        private final long version;
+
+        private final long time;
+
+        CachedCount(long count, long version, long time)
+        {
+            this.count = count;
+            this.version = version;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.taskflow.Task;
+import org.xwiki.contrib.taskflow.TaskQuery;
+import org.xwiki.contrib.taskflow.TaskStore;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.QueryException;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Caches, per wiki and user, the few open tasks with a due date the user is responsible for that have the latest due
+ * dates, so that the panels displayed on every page don't query the tasks on each render. Only the
+ * {@value #CACHED_TASK_COUNT} latest tasks are kept per user, larger requests are not cached.
+ * <p>
+ * The entries of the users involved in the tasks of a document are invalidated each time the document is saved or
+ * deleted. The responsible users are resolved as the {@link TaskAssignmentStore} stores them, so that a user written
+ * without the wiki prefix invalidates both the user of the wiki of the document and the global user with the same name,
+ * whose tasks it matches. Since only the tasks a user is allowed to view are cached, all the entries are invalidated
+ * each time a document holding rights or group members is saved or deleted, as done by the {@link TaskCountCache}.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component(roles = UserTaskCache.class)
+@Singleton
+public class UserTaskCache implements Initializable, Disposable
+{
+    private static final int CACHE_SIZE = 1000;
+
+    private static final int CACHED_TASK_COUNT = 10;
+
+    private static final LocalDocumentReference TASK_CLASS_REFERENCE =
+        new LocalDocumentReference(List.of("Macros", "CheckboxedTask", "Code"), "TaskClass");
+
+    private static final String USERS_SEPARATOR = ",";
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private TaskStore taskStore;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    private Cache<List<Task>> cache;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("taskflow.usertasks", CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the user task cache", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.cache.dispose();
+    }
+
+    /**
+     * @param userReference the responsible user
+     * @param limit the maximum number of tasks to return
+     * @return the open tasks with a due date of the current wiki the given user is responsible for that have the
+     *     latest due dates, at most {@code limit}, sorted by ascending due date
+     * @throws QueryException if the tasks are not cached and cannot be retrieved
+     */
+    public List<Task> getLatestOpenTasks(DocumentReference userReference, int limit) throws QueryException
+    {
+        if (limit > CACHED_TASK_COUNT) {
+            return search(userReference, limit);
+        }
+        String key = getKey(this.xcontextProvider.get().getWikiId(), userReference);
+        List<Task> tasks = this.cache.get(key);
+        if (tasks == null) {
+            tasks = search(userReference, CACHED_TASK_COUNT);
+            this.cache.set(key, tasks);
+        }
+        return tasks.subList(Math.max(0, tasks.size() - limit), tasks.size());
+    }
+
+    /**
+     * Invalidates the entries of the users responsible for the tasks of the given document, before and after the
+     * change, or all the entries if the document holds rights or group members.
+     *
+     * @param document the document that was saved or deleted
+     */
+    public void invalidate(XWikiDocument document)
+    {
+        if (TaskCountCache.holdsRights(document)) {
+            this.cache.removeAll();
+            return;
+        }
+        WikiReference wikiReference = document.getDocumentReference().getWikiReference();
+        Set<DocumentReference> users = new HashSet<>();
+        collectResponsibleUsers(document, wikiReference, users);
+        if (document.getOriginalDocument() != null) {
+            collectResponsibleUsers(document.getOriginalDocument(), wikiReference, users);
+        }
+        for (DocumentReference user : users) {
+            this.cache.remove(getKey(wikiReference.getName(), user));
+        }
+    }
+
+    private List<Task> search(DocumentReference userReference, int limit) throws QueryException
+    {
+        TaskQuery query = new TaskQuery();
+        query.setResponsible(userReference);
+        query.setDone(false);
+        query.setDueDateRequired(true);
+        query.setSort(TaskQuery.SortField.DUE_DATE, false);
+        query.setLimit(limit);
+        List<Task> tasks = new ArrayList<>(this.taskStore.search(query));
+        Collections.reverse(tasks);
+        return Collections.unmodifiableList(tasks);
+    }
+
+    private void collectResponsibleUsers(XWikiDocument document, WikiReference wikiReference,
+        Set<DocumentReference> users)
+    {
+        WikiReference mainWikiReference = new WikiReference(this.wikiDescriptorManager.getMainWikiId());
+        for (BaseObject taskObj : document.getXObjects(new DocumentReference(TASK_CLASS_REFERENCE, wikiReference))) {
+            if (taskObj == null) {
+                continue;
+            }
+            for (String username : StringUtils.split(taskObj.getLargeStringValue("responsible"), USERS_SEPARATOR)) {
+                if (StringUtils.isNotBlank(username)) {
+                    DocumentReference user = this.resolver.resolve(username.trim(), wikiReference);
+                    users.add(user);
+                    if (user.getWikiReference().equals(wikiReference)) {
+                        // Stored without the wiki prefix, it also matches the global user with the same name.
+                        users.add(user.setWikiReference(mainWikiReference));
+                    }
+                }
+            }
+        }
+    }
+
+    private String getKey(String wikiId, DocumentReference userReference)
+    {
+        return wikiId + '|' + this.serializer.serialize(userReference);
+    }
+}
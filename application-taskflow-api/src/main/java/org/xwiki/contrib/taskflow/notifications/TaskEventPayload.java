@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.notifications;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonAlias;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The parameters of a task notification, stored as the body of its event, e.g. {@code $payload.taskUrl} in the
+ * notification templates. A digest notification lists the parameters of each of its tasks.
+ * <p>
+ * The body uses a compact schema with one-letter keys, whose version is stored along with the parameters. The bodies
+ * stored before the schema was introduced, whose keys are the parameter names, are still read.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class TaskEventPayload
+{
+    /**
+     * The version of the schema written by this class.
+     */
+    public static final int VERSION = 1;
+
+    private static final String TASK_CONTENT = "taskContent";
+
+    private static final String TASK_CREATOR = "taskCreator";
+
+    private static final String TASK_URL = "taskUrl";
+
+    private static final String TASK_DUE_DATE = "taskDueDate";
+
+    private static final String TASK_PAGE = "taskPage";
+
+    @JsonProperty("v")
+    private int version;
+
+    @JsonProperty("c")
+    @JsonAlias(TASK_CONTENT)
+    private String taskContent;
+
+    @JsonProperty("a")
+    @JsonAlias(TASK_CREATOR)
+    private String taskCreator;
+
+    @JsonProperty("u")
+    @JsonAlias(TASK_URL)
+    private String taskUrl;
+
+    @JsonProperty("d")
+    @JsonAlias(TASK_DUE_DATE)
+    private String taskDueDate;
+
+    @JsonProperty("p")
+    @JsonAlias(TASK_PAGE)
+    private String taskPage;
+
+    @JsonProperty("t")
+    @JsonAlias("tasks")
+    private List<TaskEventPayload> tasks;
+
+    /**
+     * @param parameters the parameters of the notification, e.g. {@code taskContent} or {@code taskUrl}
+     * @param tasks the parameters of each task of a digest notification, empty for the other notifications
+     */
+    public TaskEventPayload(Map<String, String> parameters, List<Map<String, String>> tasks)
+    {
+        this.version = VERSION;
+        this.taskContent = parameters.get(TASK_CONTENT);
+        this.taskCreator = parameters.get(TASK_CREATOR);
+        this.taskUrl = parameters.get(TASK_URL);
+        this.taskDueDate = parameters.get(TASK_DUE_DATE);
+        this.taskPage = parameters.get(TASK_PAGE);
+        if (!tasks.isEmpty()) {
+            this.tasks = new ArrayList<>(tasks.size());
+            for (Map<String, String> task : tasks) {
+                this.tasks.add(new TaskEventPayload(task, Collections.emptyList()));
+            }
+        }
+    }
+
+    /**
+     * Used when reading a stored payload.
+     */
+    private TaskEventPayload()
+    {
+    }
+
+    /**
+     * @return the version of the schema the payload was stored with, 0 for the payloads stored before the schema was
+     *     introduced
+     */
+    public int getVersion()
+    {
+        return this.version;
+    }
+
+    /**
+     * @return the content of the task
+     */
+    public String getTaskContent()
+    {
+        return this.taskContent;
+    }
+
+    /**
+     * @return the serialized reference of the user who created the task
+     */
+    public String getTaskCreator()
+    {
+        return this.taskCreator;
+    }
+
+    /**
+     * @return the URL of the task, in its page
+     */
+    public String getTaskUrl()
+    {
+        return this.taskUrl;
+    }
+
+    /**
+     * @return the formatted due date of the task
+     */
+    public String getTaskDueDate()
+    {
+        return this.taskDueDate;
+    }
+
+    /**
+     * @return the title of the page holding the task
+     */
+    public String getTaskPage()
+    {
+        return this.taskPage;
+    }
+
+    /**
+     * @return the parameters of each task of a digest notification, empty for the other notifications
+     */
+    public List<TaskEventPayload> getTasks()
+    {
+        return this.tasks != null ? Collections.unmodifiableList(this.tasks) : Collections.emptyList();
+    }
+
+    /**
+     * @return the number of tasks of a digest notification
+     */
+    @JsonIgnore
+    public int getTaskCount()
+    {
+        return getTasks().size();
+    }
+}
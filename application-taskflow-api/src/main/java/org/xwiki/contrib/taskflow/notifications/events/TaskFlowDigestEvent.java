@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.notifications.events;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Task Digest event. Notify responsible user about all the tasks of a reminder run that are due soon, in a single
+ * event.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public class TaskFlowDigestEvent extends AbstractTaskFlowEvent
+{
+    private List<Map<String, String>> tasks;
+
+    /**
+     * Constructs a {@code TaskFlowDigestEvent} with the specified target users and due tasks.
+     *
+     * @param target a set of user identifiers to whom the event is targeted
+     * @param taskEventParams a map containing parameters related to the digest itself, such as the number of tasks
+     * @param tasks the parameters of each due task, such as task content, URL or deadline
+     */
+    public TaskFlowDigestEvent(Set<String> target, Map<String, String> taskEventParams,
+        List<Map<String, String>> tasks)
+    {
+        super(target, taskEventParams);
+        this.tasks = tasks;
+    }
+
+    /**
+     * Constructs an empty {@code TaskFlowDigestEvent} with no target or parameters.
+     * This constructor may be used for deserialization or manual population of event data.
+     */
+    public TaskFlowDigestEvent()
+    {
+    }
+
+    /**
+     * @return the parameters of each due task
+     */
+    public List<Map<String, String>> getTasks()
+    {
+        return this.tasks != null ? this.tasks : Collections.emptyList();
+    }
+
+    @Override
+    public boolean matches(Object otherEvent)
+    {
+        return otherEvent instanceof TaskFlowDigestEvent;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.script;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.EnumUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.taskflow.Task;
+import org.xwiki.contrib.taskflow.TaskQuery;
+import org.xwiki.contrib.taskflow.TaskStore;
+import org.xwiki.contrib.taskflow.internal.notification.TaskEventPayloadCodec;
+import org.xwiki.contrib.taskflow.internal.report.TaskReportSource;
+import org.xwiki.contrib.taskflow.internal.status.TaskStatusService;
+import org.xwiki.contrib.taskflow.internal.store.UserTaskCache;
+import org.xwiki.contrib.taskflow.notifications.TaskEventPayload;
+import org.xwiki.eventstream.Event;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.QueryException;
+import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.AccessDeniedException;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Script service giving access to the tasks from the wiki pages, e.g. {@code $services.taskflow.search($query)}.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@Component
+@Named("taskflow")
+@Singleton
+public class TaskFlowScriptService implements ScriptService
+{
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private TaskStore taskStore;
+
+    @Inject
+    private UserTaskCache userTaskCache;
+
+    @Inject
+    private TaskReportSource reportSource;
+
+    @Inject
+    private TaskStatusService statusService;
+
+    @Inject
+    private TaskEventPayloadCodec payloadCodec;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentResolver;
+
+    /**
+     * @return a new query matching all the tasks of the current wiki, to be refined before calling
+     *     {@link #search(TaskQuery)} or {@link #count(TaskQuery)}
+     */
+    public TaskQuery newQuery()
+    {
+        return new TaskQuery();
+    }
+
+    /**
+     * @param name the name of a sort field, e.g. {@code DUE_DATE}
+     * @return the corresponding sort field, {@code null} if there is none
+     */
+    public TaskQuery.SortField getSortField(String name)
+    {
+        return EnumUtils.getEnumIgnoreCase(TaskQuery.SortField.class, name);
+    }
+
+    /**
+     * @param query the criteria, the sort order and the page of the tasks to return
+     * @return the matching tasks, an empty list if they cannot be retrieved
+     */
+    public List<Task> search(TaskQuery query)
+    {
+        try {
+            return this.taskStore.search(query);
+        } catch (QueryException e) {
+            this.logger.warn("Failed to search the tasks: [{}]", e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param query the criteria of the tasks to count
+     * @return the number of matching tasks, 0 if they cannot be counted
+     */
+    public long count(TaskQuery query)
+    {
+        try {
+            return this.taskStore.count(query);
+        } catch (QueryException e) {
+            this.logger.warn("Failed to count the tasks: [{}]", e.getMessage());
+            return 0L;
+        }
+    }
+
+    /**
+     * @param limit the maximum number of tasks to return
+     * @return the open tasks with a due date the current user is responsible for that have the latest due dates, at
+     *     most {@code limit}, sorted by ascending due date; the few latest tasks are served from a cache invalidated
+     *     when these tasks change
+     */
+    public List<Task> getMyOpenTasks(int limit)
+    {
+        DocumentReference userReference = this.xcontextProvider.get().getUserReference();
+        if (userReference == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return this.userTaskCache.getLatestOpenTasks(userReference, limit);
+        } catch (QueryException e) {
+            this.logger.warn("Failed to get the open tasks of [{}]: [{}]", userReference, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Writes the page of tasks requested by the task report live table, e.g.
+     * {@code $services.taskflow.writeReport($request.parameterMap, $response.outputStream)}.
+     *
+     * @param parameters the request parameters sent by the live table
+     * @param outputStream the stream to write the JSON to
+     * @return {@code true} if the report has been written, {@code false} if the tasks cannot be retrieved
+     */
+    public boolean writeReport(Map<String, String[]> parameters, OutputStream outputStream)
+    {
+        try {
+            this.reportSource.write(parameters, outputStream);
+            return true;
+        } catch (QueryException | IOException e) {
+            this.logger.warn("Failed to write the task report: [{}]", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Checks or unchecks a task, saving its document as a minor edit.
+     *
+     * @param documentReference the document holding the task
+     * @param rid the task identifier
+     * @param done {@code true} to check the task, {@code false} to uncheck it
+     * @return {@code true} if the task has been updated, {@code false} if it doesn't exist, the current user is not
+     *     allowed to edit its document or it cannot be saved
+     */
+    public boolean setDone(DocumentReference documentReference, String rid, boolean done)
+    {
+        try {
+            return this.statusService.setDone(documentReference, rid, done);
+        } catch (AccessDeniedException | XWikiException e) {
+            this.logger.warn("Failed to update the task [{}] of [{}]: [{}]", rid, documentReference, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Checks or unchecks several tasks at once, e.g. the ones toggled in a row on a task report. The tasks of a same
+     * document are updated together, in a single save.
+     *
+     * @param updates the updates to apply, each one with the {@code page} holding the task, the {@code task}
+     *     identifier and the {@code checked} state of the task
+     * @return whether each task has been updated, by {@code page} and task identifier joined with a {@code #}, e.g.
+     *     {@code Sandbox.WebHome#abc-1761153864688}, see {@link #setDone(DocumentReference, String, boolean)}
+     */
+    public Map<String, Boolean> setDone(List<Map<String, Object>> updates)
+    {
+        Map<DocumentReference, Map<String, Boolean>> statusesByDocument = new LinkedHashMap<>();
+        Map<String, Pair<DocumentReference, String>> tasksByKey = new LinkedHashMap<>();
+        for (Map<String, Object> update : updates) {
+            Object page = update.get("page");
+            Object rid = update.get("task");
+            if (page != null && rid != null) {
+                boolean done = Boolean.parseBoolean(String.valueOf(update.get("checked")));
+                DocumentReference documentReference = this.documentResolver.resolve(page.toString());
+                statusesByDocument.computeIfAbsent(documentReference, key -> new LinkedHashMap<>())
+                    .put(rid.toString(), done);
+                tasksByKey.put(page + "#" + rid, Pair.of(documentReference, rid.toString()));
+            }
+        }
+
+        Map<DocumentReference, Set<String>> updatedRidsByDocument = new HashMap<>();
+        for (Map.Entry<DocumentReference, Map<String, Boolean>> entry : statusesByDocument.entrySet()) {
+            Set<String> updatedRids = Collections.emptySet();
+            try {
+                updatedRids = this.statusService.setDone(entry.getKey(), entry.getValue());
+            } catch (AccessDeniedException | XWikiException e) {
+                this.logger.warn("Failed to update the tasks of [{}]: [{}]", entry.getKey(), e.getMessage());
+            }
+            updatedRidsByDocument.put(entry.getKey(), updatedRids);
+        }
+
+        // The same task identifier can be used on several pages.
+        Map<String, Boolean> results = new LinkedHashMap<>();
+        tasksByKey.forEach((key, task) -> results.put(key,
+            updatedRidsByDocument.get(task.getLeft()).contains(task.getRight())));
+        return results;
+    }
+
+    /**
+     * Reads the parameters of a task notification, e.g. {@code $services.taskflow.getEventPayload($event).taskUrl} in
+     * the notification templates. The parameters of an event are read once, then cached.
+     *
+     * @param event a task notification event
+     * @return the parameters of the notification, empty if they cannot be read
+     */
+    public TaskEventPayload getEventPayload(Event event)
+    {
+        return this.payloadCodec.decode(event);
+    }
+}
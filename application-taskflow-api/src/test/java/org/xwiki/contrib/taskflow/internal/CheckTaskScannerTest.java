@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal;
+
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.XDOM;
+import org.xwiki.rendering.block.match.MacroBlockMatcher;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.renderer.printer.DefaultWikiPrinter;
+import org.xwiki.rendering.renderer.printer.WikiPrinter;
+import org.xwiki.test.annotation.AllComponents;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectComponentManager;
+import org.xwiki.test.mockito.MockitoComponentManager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that {@link CheckTaskScanner} finds the same checktask macros as the xwiki/2.1 parser, whenever it doesn't
+ * give up scanning, and that the identifiers it inserts give the same macros as setting them on the parsed macros.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+@AllComponents
+class CheckTaskScannerTest
+{
+    @InjectComponentManager
+    private MockitoComponentManager componentManager;
+
+    private CheckTaskScanner scanner;
+
+    private Parser parser;
+
+    private BlockRenderer renderer;
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        this.scanner = this.componentManager.getInstance(CheckTaskScanner.class);
+        this.parser = this.componentManager.getInstance(Parser.class, "xwiki/2.1");
+        this.renderer = this.componentManager.getInstance(BlockRenderer.class, "xwiki/2.1");
+    }
+
+    @Test
+    void scanMacros() throws Exception
+    {
+        assertScanned("{{checktask rid=\"a\"}}First{{/checktask}}\n\n"
+            + "* {{checktask reminderTimes=\"1,2\" responsible=\"XWiki.Alice\"}}Second{{/checktask}}\n"
+            + "{{checktask rid=\"c\"/}}");
+    }
+
+    @Test
+    void scanNestedMacros() throws Exception
+    {
+        // The content of the other macros is not parsed, whatever the macros it holds.
+        assertScanned("{{info}}{{checktask rid=\"a\"}}Hidden{{/checktask}}{{/info}}\n\n"
+            + "{{box}}{{box}}Inner{{/box}}{{checktask rid=\"b\"}}Hidden{{/checktask}}{{/box}}\n\n"
+            + "{{checktask rid=\"c\"}}See {{info}}this{{/info}}{{/checktask}}");
+    }
+
+    @Test
+    void scanVerbatim() throws Exception
+    {
+        assertScanned("{{{ {{checktask rid=\"a\"}}Verbatim{{/checktask}} }}}\n\n"
+            + "{{checktask rid=\"b\"}}Real{{/checktask}}");
+    }
+
+    @Test
+    void scanEscaped() throws Exception
+    {
+        assertScanned("~{{checktask rid=\"a\"}}Escaped~{{/checktask}}\n\n"
+            + "{{checktask rid=\"b\"}}Real{{/checktask}}");
+    }
+
+    @Test
+    void scanQuotedParameters() throws Exception
+    {
+        assertScanned("{{checktask rid=\"a}}b\" responsible=\"XWiki.~\"Alice~\"\"}}Quoted{{/checktask}}");
+    }
+
+    @Test
+    void scanMultiLineParameters() throws Exception
+    {
+        assertScanned("{{checktask rid=\"a\"\nresponsible=\"XWiki.Alice\"}}Parameters{{/checktask}}\n\n"
+            + "{{checktask rid=\"b\" dueDate=\"first\nsecond\"}}Value{{/checktask}}");
+    }
+
+    @Test
+    void scanMalformed()
+    {
+        // The parser has to match these tags: the scanner must give up rather than guess.
+        assertNull(this.scanner.scan("{{checktask rid=\"a\"}}Unclosed\n\n{{checktask rid=\"b\"}}Closed{{/checktask}}"));
+        assertNull(this.scanner.scan("{{checktask rid=\"a\" rid=\"b\"}}Duplicate{{/checktask}}"));
+        assertNull(
+            this.scanner.scan("{{checktask rid=\"a\"}}Outer {{checktask rid=\"b\"}}Inner{{/checktask}}{{/checktask}}"));
+        assertNull(this.scanner.scan("{{checktask rid=\"a}}Unterminated quote{{/checktask}}"));
+        assertNull(this.scanner.scan("{{checktask rid=\" \"}}Blank identifier{{/checktask}}"));
+    }
+
+    @Test
+    void insertRidsWithParameters() throws Exception
+    {
+        assertSameInsertedRids("{{checktask responsible=\"XWiki.Alice\" reminderTimes=\"h1,d1\"}}First{{/checktask}}"
+            + "\n\n{{checktask rid=\"b\" responsible=\"XWiki.Bob\"}}Kept{{/checktask}}\n\n"
+            + "* {{checktask dueDate=\"2030/01/01 10:00\"}}Third{{/checktask}}");
+    }
+
+    @Test
+    void insertRidsWithoutParameters() throws Exception
+    {
+        assertSameInsertedRids(
+            "{{checktask}}Bare{{/checktask}}\n\n{{checktask/}}\n\n{{checktask }}Spaced{{/checktask}}");
+    }
+
+    @Test
+    void insertRidsWithMultiLineParameters() throws Exception
+    {
+        assertSameInsertedRids("{{checktask responsible=\"XWiki.Alice\"\ndueDate=\"2030/01/01 10:00\"}}Lines"
+            + "{{/checktask}}\n\n{{checktask reminderTimes=\"h1\"\n}}Trailing{{/checktask}}");
+    }
+
+    @Test
+    void insertRidsWithEscapedContent() throws Exception
+    {
+        assertSameInsertedRids("{{checktask responsible=\"XWiki.~\"Alice~\"\" reminderTimes=\"h1}}\"}}Quoted"
+            + "{{/checktask}}\n\n~{{checktask}}Escaped~{{/checktask}}\n\n"
+            + "{{checktask}}See ~[~[this~]~]{{/checktask}}\n\n"
+            + "{{code}}{{checktask}}Code{{/checktask}}{{/code}}");
+    }
+
+    private void assertScanned(String content) throws Exception
+    {
+        assertNotNull(this.scanner.scan(content), "The content should be scanned");
+        assertSameMacros(content);
+    }
+
+    /**
+     * Asserts that the identifiers inserted by the scanner give the same macros as setting them on the parsed macros
+     * and rendering the content again, as done when the content cannot be scanned, and that the rest of the content
+     * is left unchanged.
+     */
+    private void assertSameInsertedRids(String content) throws Exception
+    {
+        List<CheckTaskScanner.Macro> scannedMacros = this.scanner.scan(content);
+        assertNotNull(scannedMacros, "The content should be scanned");
+        Map<CheckTaskScanner.Macro, String> newRids = new LinkedHashMap<>();
+        for (CheckTaskScanner.Macro macro : scannedMacros) {
+            if (!macro.hasRid()) {
+                newRids.put(macro, "new-" + newRids.size());
+            }
+        }
+        String scannedContent = this.scanner.insertRids(content, newRids);
+
+        XDOM xdom = this.parser.parse(new StringReader(content));
+        int parsedCount = 0;
+        for (MacroBlock macro : xdom.<MacroBlock>getBlocks(new MacroBlockMatcher("checktask"), Block.Axes.DESCENDANT)) {
+            if (macro.getParameter("rid") == null) {
+                macro.setParameter("rid", "new-" + parsedCount++);
+            }
+        }
+        WikiPrinter printer = new DefaultWikiPrinter();
+        this.renderer.render(xdom, printer);
+
+        assertEquals(parsedCount, newRids.size(), content);
+        assertEquals(toString(parseMacros(printer.toString())), toString(parseMacros(scannedContent)), content);
+        String strippedContent = scannedContent;
+        for (String rid : newRids.values()) {
+            strippedContent = strippedContent.replace(" rid=\"" + rid + "\"", "");
+        }
+        assertEquals(content, strippedContent);
+    }
+
+    /**
+     * Asserts that the scanner either gives up or finds the same macros as the parser, with the same parameters and
+     * content.
+     */
+    private void assertSameMacros(String content) throws Exception
+    {
+        List<CheckTaskScanner.Macro> scannedMacros = this.scanner.scan(content);
+        if (scannedMacros == null) {
+            return;
+        }
+        assertEquals(toString(parseMacros(content)), toString(scannedMacros.stream()
+            .map(macro -> toString(macro.getParameters(), macro.getContent())).collect(Collectors.toList())), content);
+    }
+
+    private List<String> parseMacros(String content) throws Exception
+    {
+        List<MacroBlock> parsedMacros = this.parser.parse(new StringReader(content))
+            .getBlocks(new MacroBlockMatcher("checktask"), Block.Axes.DESCENDANT);
+        return parsedMacros.stream().map(macro -> toString(macro.getParameters(), macro.getContent()))
+            .collect(Collectors.toList());
+    }
+
+    private String toString(Map<String, String> parameters, String content)
+    {
+        // A macro without content and a macro with an empty content are processed the same.
+        return new TreeMap<>(parameters) + " " + StringUtils.defaultString(content);
+    }
+
+    private String toString(List<String> macros)
+    {
+        return String.join("\n", macros);
+    }
+}
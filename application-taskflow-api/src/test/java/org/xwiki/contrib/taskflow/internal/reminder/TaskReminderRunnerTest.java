@@ -0,0 +1,191 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.reminder;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.taskflow.TaskFlowManager;
+import org.xwiki.contrib.taskflow.TaskReminder;
+import org.xwiki.contrib.taskflow.internal.TaskFlowContextRunner;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.contrib.taskflow.internal.store.TaskAssignmentStore;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link TaskReminderRunner}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class TaskReminderRunnerTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final DocumentReference ALICE = new DocumentReference(WIKI, "XWiki", "Alice");
+
+    private static final DocumentReference BOB = new DocumentReference(WIKI, "XWiki", "Bob");
+
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference(WIKI, "Space", "Page");
+
+    private static final Date WATERMARK = new Date(System.currentTimeMillis() - 60L * 60L * 1000L);
+
+    @InjectMockComponents
+    private TaskReminderRunner runner;
+
+    @MockComponent
+    private TaskFlowManager taskFlowManager;
+
+    @MockComponent
+    private TaskReminderDispatcher reminderDispatcher;
+
+    @MockComponent
+    private TaskReminderTimingWheel timingWheel;
+
+    @MockComponent
+    private TaskReminderLedger ledger;
+
+    @MockComponent
+    private TaskAssignmentStore assignmentStore;
+
+    @MockComponent
+    private TaskFlowContextRunner contextRunner;
+
+    @MockComponent
+    private TaskFlowMetrics metrics;
+
+    @MockComponent
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    private final TaskReminderLedger.State state = new TaskReminderLedger.State();
+
+    private final Map<DocumentReference, List<TaskReminder>> reminders = new LinkedHashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        XWikiContext xcontext = mock(XWikiContext.class);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.xcontextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getWikiId()).thenReturn(WIKI);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+        when(xwiki.exists(any(DocumentReference.class), eq(xcontext))).thenReturn(true);
+        when(this.wikiDescriptorManager.isMainWiki(WIKI)).thenReturn(true);
+        when(this.wikiDescriptorManager.getAllIds()).thenReturn(List.of(WIKI));
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(2).run();
+            return null;
+        }).when(this.contextRunner).run(anyString(), any(), any());
+
+        this.state.setWatermark(WATERMARK);
+        when(this.ledger.load(WIKI)).thenReturn(this.state);
+
+        this.reminders.put(ALICE, List.of(reminder("alice-1", ALICE)));
+        this.reminders.put(BOB, List.of(reminder("bob-1", BOB), reminder("bob-2", BOB)));
+        // Push the reminders of each user that are not recorded as sent, as the task flow manager does.
+        doAnswer(invocation -> {
+            Set<String> sentReminders = invocation.getArgument(2);
+            BiConsumer<DocumentReference, List<TaskReminder>> consumer = invocation.getArgument(3);
+            this.reminders.forEach((userReference, userReminders) -> {
+                List<TaskReminder> pending = userReminders.stream()
+                    .filter(reminder -> !sentReminders.contains(reminder.getKey())).collect(Collectors.toList());
+                if (!pending.isEmpty()) {
+                    consumer.accept(userReference, pending);
+                }
+            });
+            return null;
+        }).when(this.taskFlowManager).streamTasksToRemind(any(), any(), any(), any());
+    }
+
+    @Test
+    void runResendsOnlyTheFailedReminders()
+    {
+        doThrow(new RuntimeException("Mail server down")).doNothing().when(this.reminderDispatcher)
+            .remind(eq(BOB), any());
+
+        this.runner.run();
+
+        // The period is not closed: the high-water mark is kept along with the reminders that were sent.
+        verify(this.reminderDispatcher).remind(ALICE, this.reminders.get(ALICE));
+        verify(this.reminderDispatcher).remind(BOB, this.reminders.get(BOB));
+        assertEquals(WATERMARK, this.state.getWatermark());
+        assertEquals(Set.of(this.reminders.get(ALICE).get(0).getKey()), this.state.getSentReminders());
+
+        this.runner.run();
+
+        // Only the reminders of the user whose dispatch failed are sent again, then the period is closed.
+        verify(this.reminderDispatcher, times(1)).remind(eq(ALICE), any());
+        verify(this.reminderDispatcher, times(2)).remind(BOB, this.reminders.get(BOB));
+        assertTrue(this.state.getWatermark().after(WATERMARK));
+        assertTrue(this.state.getSentReminders().isEmpty());
+        verify(this.ledger, times(2)).save(WIKI, this.state);
+    }
+
+    @Test
+    void runClosesThePeriodWhenAllRemindersAreSent()
+    {
+        doNothing().when(this.reminderDispatcher).remind(any(), any());
+
+        this.runner.run();
+
+        verify(this.reminderDispatcher).remind(ALICE, this.reminders.get(ALICE));
+        verify(this.reminderDispatcher).remind(BOB, this.reminders.get(BOB));
+        assertTrue(this.state.getWatermark().after(WATERMARK));
+        assertTrue(this.state.getSentReminders().isEmpty());
+    }
+
+    private TaskReminder reminder(String rid, DocumentReference userReference)
+    {
+        return new TaskReminder(rid, DOCUMENT_REFERENCE, "Page", userReference, new Date(), "Task " + rid,
+            "XWiki.Admin", "h1");
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.xwiki.localization.ContextualLocalizationManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.ReferenceComponentList;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link TaskStatusService}.
+ *
+ * @version $Id$
+ */
+@OldcoreTest
+@ReferenceComponentList
+class TaskStatusServiceTest
+{
+    private static final DocumentReference DOCUMENT_REFERENCE = new DocumentReference("xwiki", "Space", "Page");
+
+    private static final DocumentReference TASK_CLASS_REFERENCE =
+        new DocumentReference("xwiki", List.of("Macros", "CheckboxedTask", "Code"), "TaskClass");
+
+    private static final String DONE = "done";
+
+    private static final int TASK_COUNT = 32;
+
+    @InjectMockitoOldcore
+    private MockitoOldcore oldcore;
+
+    @InjectMockComponents
+    private TaskStatusService statusService;
+
+    @MockComponent
+    private ContextualLocalizationManager localization;
+
+    /**
+     * The document held by the document cache, shared by all the threads and replaced by each save.
+     */
+    private volatile XWikiDocument cachedDocument;
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        XWikiDocument document = new XWikiDocument(DOCUMENT_REFERENCE);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            document.addXObject(createTask("task" + i));
+        }
+        store(document);
+
+        when(this.localization.getTranslationPlain("checktask.macro.result0")).thenReturn("Task");
+        when(this.localization.getTranslationPlain("checktask.macro.result1")).thenReturn("completed");
+        doAnswer(invocation -> this.cachedDocument).when(this.oldcore.getSpyXWiki())
+            .getDocument(any(DocumentReference.class), any(XWikiContext.class));
+        doAnswer(this::save).when(this.oldcore.getSpyXWiki()).saveDocument(any(XWikiDocument.class), anyString(),
+            anyBoolean(), any(XWikiContext.class));
+    }
+
+    @Test
+    void setDoneConcurrently() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(TASK_COUNT);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < TASK_COUNT; i++) {
+                String rid = "task" + i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return this.statusService.setDone(DOCUMENT_REFERENCE, rid, true);
+                }));
+            }
+            start.countDown();
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(1, TimeUnit.MINUTES));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Each change is saved from the document saved by the previous one, so that none is lost.
+        assertDone(this.cachedDocument, TASK_COUNT);
+        verify(this.oldcore.getSpyXWiki(), times(TASK_COUNT)).saveDocument(any(XWikiDocument.class), anyString(),
+            eq(true), any(XWikiContext.class));
+        verify(this.oldcore.getSpyXWiki()).saveDocument(any(XWikiDocument.class), eq("Task task0 completed"),
+            eq(true), any(XWikiContext.class));
+        verify(this.oldcore.getObservationManager(), times(TASK_COUNT)).notify(any(TaskStatusChangedEvent.class),
+            eq(DOCUMENT_REFERENCE));
+    }
+
+    @Test
+    void setDoneReleasesTheSaveWhenItFails() throws Exception
+    {
+        XWikiDocument storedDocument = this.cachedDocument;
+        // The save fails once the document updating event is fired, so the document updated event never is.
+        doAnswer(invocation -> {
+            this.statusService.beginSave(invocation.getArgument(0));
+            throw new XWikiException();
+        }).doAnswer(this::save).when(this.oldcore.getSpyXWiki()).saveDocument(any(XWikiDocument.class), anyString(),
+            anyBoolean(), any(XWikiContext.class));
+
+        assertThrows(XWikiException.class, () -> this.statusService.setDone(DOCUMENT_REFERENCE, "task0", true));
+        // The cached document is left untouched: only a copy was changed.
+        assertSame(storedDocument, this.cachedDocument);
+        assertDone(this.cachedDocument, 0);
+
+        // The next change doesn't wait for the failed save.
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Set<String>> result =
+                executor.submit(() -> this.statusService.setDone(DOCUMENT_REFERENCE, Map.of("task0", true)));
+            assertEquals(Set.of("task0"), result.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertDone(this.cachedDocument, 1);
+    }
+
+    @Test
+    void endSavesReleasesTheFailedSavesOfTheRequest() throws Exception
+    {
+        // A save of the request that failed once the document updating event was fired.
+        XWikiDocument failedCopy = copy(this.cachedDocument);
+        this.statusService.beginSave(failedCopy);
+
+        this.statusService.endSaves();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(executor.submit(() -> this.statusService.setDone(DOCUMENT_REFERENCE, "task0", true))
+                .get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertDone(this.cachedDocument, 1);
+    }
+
+    @Test
+    void mergeStatusesKeepsTheTasksToggledBySave() throws Exception
+    {
+        XWikiDocument staleCopy = copy(this.cachedDocument);
+        assertTrue(this.statusService.setDone(DOCUMENT_REFERENCE, "task0", true));
+
+        staleCopy.getXObjects(TASK_CLASS_REFERENCE).get(1).setIntValue(DONE, 1);
+        this.statusService.mergeStatuses(staleCopy);
+
+        List<BaseObject> taskObjects = staleCopy.getXObjects(TASK_CLASS_REFERENCE);
+        // Toggled since the copy was taken.
+        assertEquals(1, taskObjects.get(0).getIntValue(DONE));
+        // Toggled by the save itself.
+        assertEquals(1, taskObjects.get(1).getIntValue(DONE));
+        assertEquals(0, taskObjects.get(2).getIntValue(DONE));
+    }
+
+    @Test
+    void setDoneDuringTheSaveOfAStaleCopy() throws Exception
+    {
+        // A copy of the document taken for edition, before a task is toggled.
+        XWikiDocument staleCopy = copy(this.cachedDocument);
+        assertTrue(this.statusService.setDone(DOCUMENT_REFERENCE, "task0", true));
+        staleCopy.getXObjects(TASK_CLASS_REFERENCE).get(1).setIntValue(DONE, 1);
+
+        // The stale copy is saved while another task is toggled.
+        this.statusService.beginSave(staleCopy);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> result =
+                executor.submit(() -> this.statusService.setDone(DOCUMENT_REFERENCE, "task2", true));
+            // The task is not toggled while the document is being stored, so that the save doesn't overwrite it.
+            assertThrows(TimeoutException.class, () -> result.get(500, TimeUnit.MILLISECONDS));
+            store(staleCopy);
+            this.statusService.endSave(staleCopy);
+
+            assertTrue(result.get(1, TimeUnit.MINUTES));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // None of the tasks toggled before the save, by the save and during the save is lost.
+        List<BaseObject> taskObjects = this.cachedDocument.getXObjects(TASK_CLASS_REFERENCE);
+        assertEquals(1, taskObjects.get(0).getIntValue(DONE));
+        assertEquals(1, taskObjects.get(1).getIntValue(DONE));
+        assertEquals(1, taskObjects.get(2).getIntValue(DONE));
+        assertDone(this.cachedDocument, 3);
+    }
+
+    /**
+     * Saves a document as the task flow listener and the document cache would.
+     */
+    private Object save(InvocationOnMock invocation) throws XWikiException
+    {
+        XWikiDocument savedDocument = invocation.getArgument(0);
+        this.statusService.beginSave(savedDocument);
+        store(savedDocument);
+        this.statusService.endSave(savedDocument);
+        return null;
+    }
+
+    /**
+     * Replaces the cached document with the stored copy of the given document.
+     */
+    private void store(XWikiDocument document)
+    {
+        XWikiDocument storedDocument = document.clone();
+        storedDocument.setNew(false);
+        storedDocument.setOriginalDocument(storedDocument.clone());
+        this.cachedDocument = storedDocument;
+    }
+
+    /**
+     * @return a copy of the given document taken for edition, as the edit actions do
+     */
+    private XWikiDocument copy(XWikiDocument document)
+    {
+        XWikiDocument copy = document.clone();
+        copy.setOriginalDocument(document.getOriginalDocument());
+        return copy;
+    }
+
+    private void assertDone(XWikiDocument document, int doneCount)
+    {
+        assertEquals(doneCount, document.getXObjects(TASK_CLASS_REFERENCE).stream()
+            .filter(taskObject -> taskObject.getIntValue(DONE) == 1).count());
+    }
+
+    private BaseObject createTask(String rid)
+    {
+        BaseObject taskObject = new BaseObject();
+        taskObject.setXClassReference(TASK_CLASS_REFERENCE);
+        taskObject.setStringValue("rid", rid);
+        taskObject.setIntValue(DONE, 0);
+        return taskObject;
+    }
+}
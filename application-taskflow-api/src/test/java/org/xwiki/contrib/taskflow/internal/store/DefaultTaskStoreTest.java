@@ -0,0 +1,362 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.store;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.taskflow.Task;
+import org.xwiki.contrib.taskflow.TaskCursor;
+import org.xwiki.contrib.taskflow.TaskFlowConfiguration;
+import org.xwiki.contrib.taskflow.TaskPage;
+import org.xwiki.contrib.taskflow.TaskQuery;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link DefaultTaskStore}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class DefaultTaskStoreTest
+{
+    private static final String PROJECT_CLASS = "Protokoll.Code.ProtokollClass";
+
+    private static final DocumentReference PROJECT_CLASS_REFERENCE =
+        new DocumentReference("wiki", List.of("Protokoll", "Code"), "ProtokollClass");
+
+    private static final DocumentReference PROJECT_REFERENCE = new DocumentReference("wiki", "Projects", "Alpha");
+
+    private static final WikiReference WIKI_REFERENCE = new WikiReference("wiki");
+
+    private static final String SELECT_FROM = "select doc.fullName, doc.title, task.rid, task.task, task.creator, "
+        + "task.responsible, task.dueDate, task.done from Document doc, "
+        + "doc.object(Macros.CheckboxedTask.Code.TaskClass) as task";
+
+    private static final String AFTER_TASK =
+        "(doc.fullName > :afterDocument or (doc.fullName = :afterDocument and task.rid > :afterRid))";
+
+    private static final String DENIED_SPACE = "Private";
+
+    private static final Date DUE_DATE = new Date(1700000000000L);
+
+    @InjectMockComponents
+    private DefaultTaskStore taskStore;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private TaskFlowConfiguration configuration;
+
+    @MockComponent
+    private TaskAssignmentStore assignmentStore;
+
+    @MockComponent
+    private TaskCountCache countCache;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    private ContextualAuthorizationManager authorization;
+
+    @MockComponent
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    private Query query;
+
+    @BeforeEach
+    void configure() throws Exception
+    {
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getWikiId()).thenReturn("wiki");
+        when(this.xcontextProvider.get()).thenReturn(xcontext);
+
+        when(this.configuration.getProjectClass()).thenReturn(PROJECT_CLASS);
+        when(this.configuration.getProjectProperty()).thenReturn("projectPage");
+        when(this.resolver.resolve(PROJECT_CLASS)).thenReturn(PROJECT_CLASS_REFERENCE);
+        when(this.localSerializer.serialize(PROJECT_CLASS_REFERENCE)).thenReturn(PROJECT_CLASS);
+        when(this.localSerializer.serialize(PROJECT_REFERENCE)).thenReturn("Projects.Alpha");
+
+        this.query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(Query.XWQL))).thenReturn(this.query);
+        // The documents of the Private space are not viewable by the current user.
+        when(this.authorization.hasAccess(eq(Right.VIEW), any())).thenAnswer(invocation -> !DENIED_SPACE
+            .equals(((DocumentReference) invocation.getArgument(1)).getLastSpaceReference().getName()));
+        when(this.resolver.resolve(anyString(), any(WikiReference.class))).thenAnswer(invocation -> {
+            String[] fullName = ((String) invocation.getArgument(0)).split("\\.", 2);
+            return new DocumentReference("wiki", fullName[0], fullName[1]);
+        });
+    }
+
+    @Test
+    void countWithProjectFilter() throws Exception
+    {
+        when(this.query.<Object[]>execute())
+            .thenReturn(List.of(new Object[] {"Meetings.First", 2L}, new Object[] {"Meetings.Second", 3L}));
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setProject(PROJECT_REFERENCE);
+
+        assertEquals(5L, this.taskStore.count(taskQuery));
+
+        verify(this.queryManager).createQuery("select doc.fullName, count(doc.id) from Document doc, "
+            + "doc.object(Macros.CheckboxedTask.Code.TaskClass) as task where (doc.fullName in (select "
+            + "projectDoc.fullName from Document projectDoc, projectDoc.object(Protokoll.Code.ProtokollClass) as "
+            + "projectObj where projectObj.projectPage = :project)) group by doc.fullName", Query.XWQL);
+        verify(this.query).bindValue("project", "Projects.Alpha");
+    }
+
+    @Test
+    void countAsWikiAdministratorWithScalarQuery() throws Exception
+    {
+        when(this.authorization.hasAccess(Right.ADMIN, WIKI_REFERENCE)).thenReturn(true);
+        when(this.query.execute()).thenReturn(List.of(42L));
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setDone(false);
+
+        assertEquals(42L, this.taskStore.count(taskQuery));
+
+        verify(this.queryManager).createQuery("select count(doc.id) from Document doc, "
+            + "doc.object(Macros.CheckboxedTask.Code.TaskClass) as task where task.done <> 1", Query.XWQL);
+        verify(this.authorization, never()).hasAccess(eq(Right.VIEW), any());
+    }
+
+    @Test
+    void countWithProjectFilterAndInvalidProperty() throws Exception
+    {
+        when(this.configuration.getProjectProperty()).thenReturn("projectPage = '' or 1");
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setProject(PROJECT_REFERENCE);
+
+        assertEquals(0L, this.taskStore.count(taskQuery));
+
+        verify(this.queryManager, never()).createQuery(anyString(), anyString());
+    }
+
+    @Test
+    void searchSkipsTheTasksThatAreNotViewable() throws Exception
+    {
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Meetings.First", "t1", null),
+            row("Private.Secret", "t2", null), row("Meetings.Second", "t3", null), row("Private.Secret", "t4", null),
+            row("Meetings.Third", "t5", null), row("Meetings.Fourth", "t6", null)));
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setOffset(1);
+        taskQuery.setLimit(2);
+
+        List<Task> tasks = this.taskStore.search(taskQuery);
+
+        // The offset counts the viewable tasks only, so the rows are read from the first one.
+        assertEquals(List.of("t3", "t5"), tasks.stream().map(Task::getRid).collect(Collectors.toList()));
+        verify(this.query).setOffset(0);
+        verify(this.query).setLimit(100);
+    }
+
+    @Test
+    void searchReadsMoreRowsUntilThePageIsComplete() throws Exception
+    {
+        // Every other task of the first batch is not viewable.
+        List<Object[]> firstBatch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            firstBatch.add(row(i % 2 == 0 ? "Meetings.Page" + i : "Private.Page" + i, "t" + i, null));
+        }
+        List<Object[]> secondBatch = new ArrayList<>();
+        for (int i = 100; i < 120; i++) {
+            secondBatch.add(row("Meetings.Page" + i, "t" + i, null));
+        }
+        when(this.query.<Object[]>execute()).thenReturn(firstBatch, secondBatch);
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setOffset(10);
+        taskQuery.setLimit(50);
+
+        List<Task> tasks = this.taskStore.search(taskQuery);
+
+        assertEquals(50, tasks.size());
+        assertEquals("t20", tasks.get(0).getRid());
+        assertEquals("t98", tasks.get(39).getRid());
+        assertEquals("t109", tasks.get(49).getRid());
+        verify(this.query).setOffset(0);
+        verify(this.query).setOffset(100);
+        verify(this.query, times(2)).setLimit(100);
+    }
+
+    @Test
+    void searchAsWikiAdministratorUsesTheDatabaseOffset() throws Exception
+    {
+        when(this.authorization.hasAccess(Right.ADMIN, WIKI_REFERENCE)).thenReturn(true);
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Private.Secret", "t21", null)));
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setOffset(20);
+        taskQuery.setLimit(10);
+
+        assertEquals("t21", this.taskStore.search(taskQuery).get(0).getRid());
+
+        verify(this.query).setOffset(20);
+        verify(this.query).setLimit(10);
+        verify(this.authorization, never()).hasAccess(eq(Right.VIEW), any());
+    }
+
+    @Test
+    void seekRoundTrip() throws Exception
+    {
+        Date laterDate = new Date(DUE_DATE.getTime() + 1000);
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Meetings.First", "t1", DUE_DATE),
+            row("Private.Secret", "t2", DUE_DATE), row("Meetings.Second", "t3", laterDate),
+            row("Meetings.Third", "t4", laterDate)));
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setSort(TaskQuery.SortField.DUE_DATE, true);
+        taskQuery.setLimit(2);
+
+        TaskPage page = this.taskStore.seek(taskQuery);
+
+        assertEquals(List.of("t1", "t3"),
+            page.getTasks().stream().map(Task::getRid).collect(Collectors.toList()));
+        verify(this.queryManager).createQuery(SELECT_FROM + " where task.dueDate is not null order by task.dueDate "
+            + "asc, doc.fullName, task.rid", Query.XWQL);
+
+        // The cursor of the last task of the page, as sent back by the client.
+        TaskCursor next = TaskCursor.parse(page.getNext().toString());
+        assertEquals(TaskQuery.SortField.DUE_DATE, next.getSortField());
+        assertEquals(laterDate, next.getSortValue());
+        assertEquals("Meetings.Second", next.getDocument());
+        assertEquals("t3", next.getRid());
+
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Meetings.Third", "t4", laterDate)),
+            List.of());
+        taskQuery.setAfter(next);
+
+        page = this.taskStore.seek(taskQuery);
+
+        assertEquals("t4", page.getTasks().get(0).getRid());
+        assertNull(page.getNext());
+        verify(this.queryManager).createQuery(SELECT_FROM + " where task.dueDate is not null and (task.dueDate > "
+            + ":afterValue or (task.dueDate = :afterValue and " + AFTER_TASK + ")) order by task.dueDate asc, "
+            + "doc.fullName, task.rid", Query.XWQL);
+        verify(this.query).bindValue("afterValue", laterDate);
+        verify(this.query).bindValue("afterDocument", "Meetings.Second");
+        verify(this.query).bindValue("afterRid", "t3");
+    }
+
+    @Test
+    void seekTasksWithoutSortValue() throws Exception
+    {
+        // The tasks with a due date, then those without one.
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Meetings.First", "t1", DUE_DATE)),
+            List.of(row("Meetings.First", "t2", null), row("Meetings.Second", "t3", null),
+                row("Meetings.Third", "t4", null)));
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setSort(TaskQuery.SortField.DUE_DATE, true);
+        taskQuery.setLimit(2);
+
+        TaskPage page = this.taskStore.seek(taskQuery);
+
+        assertEquals(List.of("t1", "t2"),
+            page.getTasks().stream().map(Task::getRid).collect(Collectors.toList()));
+        verify(this.queryManager).createQuery(SELECT_FROM + " where task.dueDate is null order by doc.fullName, "
+            + "task.rid", Query.XWQL);
+        TaskCursor next = TaskCursor.parse(page.getNext().toString());
+        assertNull(next.getSortValue());
+        assertEquals("Meetings.First", next.getDocument());
+        assertEquals("t2", next.getRid());
+
+        // The next page only holds tasks without a due date.
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Meetings.Second", "t3", null),
+            row("Meetings.Third", "t4", null)));
+        taskQuery.setAfter(next);
+
+        page = this.taskStore.seek(taskQuery);
+
+        assertEquals(List.of("t3", "t4"),
+            page.getTasks().stream().map(Task::getRid).collect(Collectors.toList()));
+        assertNull(page.getNext());
+        verify(this.queryManager).createQuery(SELECT_FROM + " where task.dueDate is null and " + AFTER_TASK
+            + " order by doc.fullName, task.rid", Query.XWQL);
+        verify(this.query, never()).bindValue(eq("afterValue"), any());
+    }
+
+    @Test
+    void seekTasksWithTheSameSortValueInTheSameDocument() throws Exception
+    {
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Meetings.First", "t1", DUE_DATE),
+            row("Meetings.First", "t2", DUE_DATE)));
+        TaskQuery taskQuery = new TaskQuery();
+        taskQuery.setSort(TaskQuery.SortField.DUE_DATE, false);
+        taskQuery.setLimit(1);
+
+        TaskPage page = this.taskStore.seek(taskQuery);
+
+        assertEquals("t1", page.getTasks().get(0).getRid());
+        TaskCursor next = TaskCursor.parse(page.getNext().toString());
+
+        when(this.query.<Object[]>execute()).thenReturn(List.of(row("Meetings.First", "t2", DUE_DATE)), List.of());
+        taskQuery.setAfter(next);
+
+        page = this.taskStore.seek(taskQuery);
+
+        // The task following the cursor in the same document, with the same due date.
+        assertEquals("t2", page.getTasks().get(0).getRid());
+        verify(this.queryManager).createQuery(SELECT_FROM + " where task.dueDate is not null and (task.dueDate < "
+            + ":afterValue or (task.dueDate = :afterValue and " + AFTER_TASK + ")) order by task.dueDate desc, "
+            + "doc.fullName, task.rid", Query.XWQL);
+        verify(this.query).bindValue("afterValue", DUE_DATE);
+        verify(this.query).bindValue("afterDocument", "Meetings.First");
+        verify(this.query).bindValue("afterRid", "t1");
+    }
+
+    private static Object[] row(String document, String rid, Date dueDate)
+    {
+        return new Object[] {document, null, rid, "Task " + rid, "XWiki.Admin", "XWiki.Admin", dueDate, 0};
+    }
+}
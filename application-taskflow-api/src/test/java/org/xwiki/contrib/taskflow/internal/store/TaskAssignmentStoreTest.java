@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.internal.store;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for {@link TaskAssignmentStore}.
+ *
+ * @version $Id$
+ */
+@ComponentTest
+class TaskAssignmentStoreTest
+{
+    private static final WikiReference MAIN_WIKI = new WikiReference("xwiki");
+
+    private static final WikiReference SUBWIKI = new WikiReference("subwiki");
+
+    private static final DocumentReference GLOBAL_USER = new DocumentReference("xwiki", "XWiki", "jdoe");
+
+    private static final DocumentReference LOCAL_USER = new DocumentReference("subwiki", "XWiki", "jdoe");
+
+    private static final String LOCAL_NAME = "XWiki.jdoe";
+
+    private static final String GLOBAL_NAME = "xwiki:XWiki.jdoe";
+
+    private static final String RESPONSIBLE = "responsible";
+
+    @InjectMockComponents
+    private TaskAssignmentStore assignmentStore;
+
+    @MockComponent
+    private Provider<XWikiContext> xcontextProvider;
+
+    @MockComponent
+    private DocumentReferenceResolver<String> resolver;
+
+    @MockComponent
+    private EntityReferenceSerializer<String> serializer;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    private XWiki xwiki;
+
+    @BeforeEach
+    void setUp()
+    {
+        XWikiContext xcontext = mock(XWikiContext.class);
+        this.xwiki = mock(XWiki.class);
+        when(this.xcontextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getWiki()).thenReturn(this.xwiki);
+
+        when(this.resolver.resolve(LOCAL_NAME, SUBWIKI)).thenReturn(LOCAL_USER);
+        when(this.resolver.resolve(GLOBAL_NAME, SUBWIKI)).thenReturn(GLOBAL_USER);
+        when(this.resolver.resolve(LOCAL_NAME, MAIN_WIKI)).thenReturn(GLOBAL_USER);
+        when(this.localSerializer.serialize(LOCAL_USER)).thenReturn(LOCAL_NAME);
+        when(this.localSerializer.serialize(GLOBAL_USER)).thenReturn(LOCAL_NAME);
+        when(this.serializer.serialize(LOCAL_USER)).thenReturn("subwiki:XWiki.jdoe");
+        when(this.serializer.serialize(GLOBAL_USER)).thenReturn(GLOBAL_NAME);
+    }
+
+    @Test
+    void getAssignedTaskConstraintWithAssignments()
+    {
+        when(this.xwiki.hasCustomMappings()).thenReturn(true);
+        when(this.xwiki.hasDynamicCustomMappings()).thenReturn(true);
+        Map<String, Object> parameters = new HashMap<>();
+
+        assertEquals("exists (select assignmentDoc.fullName from Document assignmentDoc, "
+            + "assignmentDoc.object(Macros.CheckboxedTask.Code.TaskAssignmentClass) as assignment "
+            + "where assignmentDoc.fullName = doc.fullName and assignment.rid = task.rid "
+            + "and assignment.user in (:responsible))",
+            this.assignmentStore.getAssignedTaskConstraint(RESPONSIBLE, GLOBAL_USER, parameters));
+        assertEquals(Map.of(RESPONSIBLE, List.of(LOCAL_NAME, GLOBAL_NAME)), parameters);
+    }
+
+    @Test
+    void getAssignedTaskConstraintWithoutAssignments()
+    {
+        when(this.xwiki.hasCustomMappings()).thenReturn(true);
+        Map<String, Object> parameters = new HashMap<>();
+
+        assertEquals("task.responsible like :responsible",
+            this.assignmentStore.getAssignedTaskConstraint(RESPONSIBLE, GLOBAL_USER, parameters));
+        assertEquals(Map.of(RESPONSIBLE, "%XWiki.jdoe%"), parameters);
+    }
+
+    @Test
+    void getStoredUser()
+    {
+        // A user written without the wiki prefix is stored without it, whatever the wiki of the task.
+        assertEquals(LOCAL_NAME, this.assignmentStore.getStoredUser(LOCAL_NAME, SUBWIKI));
+        assertEquals(LOCAL_NAME, this.assignmentStore.getStoredUser(" " + LOCAL_NAME, MAIN_WIKI));
+        // A user of another wiki keeps its wiki prefix.
+        assertEquals(GLOBAL_NAME, this.assignmentStore.getStoredUser(GLOBAL_NAME, SUBWIKI));
+
+        // The global user matches the tasks of the subwiki assigned to it with or without the wiki prefix.
+        assertEquals(List.of(LOCAL_NAME, GLOBAL_NAME), this.assignmentStore.getStoredUsers(GLOBAL_USER));
+    }
+}
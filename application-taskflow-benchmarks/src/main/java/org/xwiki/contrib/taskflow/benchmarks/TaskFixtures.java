@@ -0,0 +1,250 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.benchmarks;
+
+import java.lang.reflect.Field;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import org.mockito.Mockito;
+import org.xwiki.contrib.taskflow.internal.TaskDueEntry;
+import org.xwiki.contrib.taskflow.internal.index.TaskDueDateIndex;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryException;
+
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Synthetic pages, task objects and due tasks used by the benchmarks, along with the helpers to set up the components
+ * under test with mocked dependencies.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+public final class TaskFixtures
+{
+    /**
+     * The date format of the synthetic due dates.
+     */
+    public static final String DATE_FORMAT = "yyyy/MM/dd HH:mm";
+
+    /**
+     * The number of distinct users the synthetic tasks are assigned to.
+     */
+    public static final int USER_COUNT = 50;
+
+    private static final String SPACE = "Benchmarks";
+
+    private static final List<String> ALL_REMINDER_TIMES = List.of("h1", "h2", "h4", "h8", "h12", "d1", "d2", "d5");
+
+    private TaskFixtures()
+    {
+    }
+
+    /**
+     * @param taskCount the number of tasks
+     * @param withRids {@code true} for the content of a saved page, whose macros have an identifier, {@code false} for
+     *     a page where the tasks have just been written
+     * @return the content of a page holding the given number of checktask macros, among paragraphs and other macros
+     */
+    public static String content(int taskCount, boolean withRids)
+    {
+        StringBuilder content = new StringBuilder("= Meeting notes =\n\n{{toc/}}\n\n");
+        for (int i = 0; i < taskCount; i++) {
+            if (i % 10 == 0) {
+                content.append("\n== Topic ").append(i / 10).append(" ==\n\n");
+                content.append("Some **discussion** about the topic, see [[the previous meeting>>Main.WebHome]].\n\n");
+                content.append("{{info}}A note about the topic.{{/info}}\n\n");
+            }
+            content.append("* {{checktask");
+            if (withRids) {
+                content.append(" rid=\"").append(rid(i)).append('"');
+            }
+            content.append(" responsible=\"").append(user(i)).append(',').append(user(i + 1)).append('"');
+            content.append(" dueDate=\"2030/01/").append(String.format("%02d", i % 28 + 1)).append(" 10:00\"");
+            content.append(" reminderTimes=\"h1,d1\"}}Task number ").append(i).append(" to do{{/checktask}}\n");
+        }
+        return content.toString();
+    }
+
+    /**
+     * @param taskCount the number of tasks
+     * @return the task objects of a page whose content is {@code content(taskCount, true)}, up to date with it
+     */
+    public static List<BaseObject> taskObjects(int taskCount)
+    {
+        List<BaseObject> taskObjects = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            BaseObject taskObject = new BaseObject();
+            taskObject.setStringValue("rid", rid(i));
+            taskObject.setIntValue("done", 0);
+            taskObject.setStringValue("task", "Task number " + i + " to do");
+            taskObject.setLargeStringValue("responsible", user(i) + ',' + user(i + 1));
+            taskObject.setDateValue("dueDate",
+                Date.from(LocalDateTime.of(2030, 1, i % 28 + 1, 10, 0).atZone(ZoneId.systemDefault()).toInstant()));
+            taskObject.setStringListValue("reminderTimes", List.of("h1", "d1"));
+            taskObjects.add(taskObject);
+        }
+        return taskObjects;
+    }
+
+    /**
+     * @param taskCount the number of tasks
+     * @param from the start of the due dates
+     * @return open tasks due every few minutes from the given date, each one with all the reminder intervals
+     */
+    public static List<TaskDueEntry> dueEntries(int taskCount, Date from)
+    {
+        List<TaskDueEntry> dueEntries = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            Date dueDate = new Date(from.getTime() + TimeUnit.HOURS.toMillis(1) + TimeUnit.MINUTES.toMillis(i % 7200));
+            dueEntries.add(new TaskDueEntry(page(i % 100), rid(i), dueDate,
+                List.of(userReference(i), userReference(i + 1)), ALL_REMINDER_TIMES, "Task number " + i + " to do",
+                "XWiki.Admin", "Page " + i % 100));
+        }
+        return dueEntries;
+    }
+
+    /**
+     * @param taskCount the number of tasks
+     * @return the parameters of a digest notification listing the given number of tasks
+     */
+    public static List<Map<String, String>> digestTasks(int taskCount)
+    {
+        List<Map<String, String>> tasks = new ArrayList<>(taskCount);
+        for (int i = 0; i < taskCount; i++) {
+            tasks.add(Map.of("taskContent", "Task number " + i + " to do", "taskCreator", "XWiki.Admin", "taskUrl",
+                "https://wiki.example.org/xwiki/bin/view/Benchmarks/Page" + i % 100 + '#' + rid(i), "taskDueDate",
+                "2030/01/01 10:00", "reminderInterval", "h1"));
+        }
+        return tasks;
+    }
+
+    /**
+     * @param index the index of the page
+     * @return the reference of a synthetic page
+     */
+    public static DocumentReference page(int index)
+    {
+        return new DocumentReference("xwiki", SPACE, "Page" + index);
+    }
+
+    /**
+     * @param index the index of the user
+     * @return the reference of one of the synthetic users
+     */
+    public static DocumentReference userReference(int index)
+    {
+        return new DocumentReference("xwiki", "XWiki", "User" + index % USER_COUNT);
+    }
+
+    /**
+     * @param dueEntries the open tasks to index
+     * @return a due date index holding the given tasks, as the index of the current wiki
+     * @throws QueryException never, the due date index is mocked
+     */
+    public static TaskDueDateIndex dueDateIndex(List<TaskDueEntry> dueEntries) throws QueryException
+    {
+        List<TaskDueEntry> sortedEntries = new ArrayList<>(dueEntries);
+        sortedEntries.sort(Comparator.comparing(TaskDueEntry::getDueDate));
+        NavigableMap<DocumentReference, List<TaskDueEntry>> userEntries = new TreeMap<>();
+        for (TaskDueEntry dueEntry : sortedEntries) {
+            for (DocumentReference userReference : dueEntry.getResponsible()) {
+                userEntries.computeIfAbsent(userReference, k -> new ArrayList<>()).add(dueEntry);
+            }
+        }
+
+        TaskDueDateIndex dueDateIndex = mock(TaskDueDateIndex.class);
+        Mockito.when(dueDateIndex.getDueTasks(Mockito.any(), Mockito.any())).thenReturn(sortedEntries);
+        Mockito.doAnswer(invocation -> {
+            Date start = invocation.getArgument(0);
+            Date end = invocation.getArgument(1);
+            BiConsumer<DocumentReference, List<TaskDueEntry>> consumer = invocation.getArgument(2);
+            userEntries.forEach((userReference, entries) -> {
+                List<TaskDueEntry> dueTasks = entries.stream()
+                    .filter(entry -> !entry.getDueDate().before(start) && entry.getDueDate().before(end))
+                    .collect(Collectors.toList());
+                if (!dueTasks.isEmpty()) {
+                    consumer.accept(userReference, dueTasks);
+                }
+            });
+            return null;
+        }).when(dueDateIndex).streamDueTasksByUser(Mockito.any(), Mockito.any(), Mockito.any());
+        return dueDateIndex;
+    }
+
+    /**
+     * Creates a mock which doesn't record its invocations, so that calling it millions of times doesn't fill the
+     * memory nor skew the measures.
+     *
+     * @param <T> the mocked type
+     * @param type the mocked type
+     * @return the mock
+     */
+    public static <T> T mock(Class<T> type)
+    {
+        return Mockito.mock(type, Mockito.withSettings().stubOnly());
+    }
+
+    /**
+     * Sets a field of a component, as the component manager would inject it.
+     *
+     * @param component the component
+     * @param fieldName the name of the field to set
+     * @param value the value to inject
+     */
+    public static void inject(Object component, String fieldName, Object value)
+    {
+        for (Class<?> type = component.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(component, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // Look in the super class.
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException(
+            String.format("No field [%s] in [%s]", fieldName, component.getClass().getName()));
+    }
+
+    private static String rid(int index)
+    {
+        return String.format("t%02d-%013d", index % 100, 1700000000000L + index);
+    }
+
+    private static String user(int index)
+    {
+        return "XWiki.User" + index % USER_COUNT;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.benchmarks;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.contrib.taskflow.internal.TaskFlowEventConverter;
+import org.xwiki.contrib.taskflow.internal.notification.TaskEventPayloadCodec;
+import org.xwiki.contrib.taskflow.notifications.TaskEventPayload;
+import org.xwiki.contrib.taskflow.notifications.events.TaskFlowAssignedEvent;
+import org.xwiki.contrib.taskflow.notifications.events.TaskFlowDigestEvent;
+import org.xwiki.eventstream.Event;
+import org.xwiki.eventstream.RecordableEventConverter;
+
+/**
+ * Measures the conversion of the task notifications into stored events, whose body holds the JSON serialized
+ * parameters of the tasks, for an assignment and for digests listing 1 to 10,000 tasks, and the reading of the digest
+ * bodies when the notifications are displayed.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskFlowEventConverterBenchmark
+{
+    private static final String SOURCE = "org.xwiki.contrib:application-taskflow-api";
+
+    @Param({ "1", "10", "100", "1000", "10000" })
+    private int taskCount;
+
+    private TaskFlowEventConverter converter;
+
+    private TaskFlowAssignedEvent assignedEvent;
+
+    private TaskFlowDigestEvent digestEvent;
+
+    private TaskEventPayloadCodec payloadCodec;
+
+    private Event storedDigestEvent;
+
+    /**
+     * Sets up the converter over a mocked default converter, and the events to convert and to read. The stored event
+     * has no identifier, so that each read parses its body instead of hitting the payload cache.
+     *
+     * @throws Exception if the default converter cannot be mocked or the payload codec cannot be initialized
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        RecordableEventConverter defaultConverter = TaskFixtures.mock(RecordableEventConverter.class);
+        Mockito.when(defaultConverter.convert(Mockito.any(), Mockito.any(), Mockito.any()))
+            .thenAnswer(invocation -> TaskFixtures.mock(Event.class));
+
+        CacheManager cacheManager = TaskFixtures.mock(CacheManager.class);
+        Mockito.doReturn(TaskFixtures.mock(Cache.class)).when(cacheManager).createNewCache(Mockito.any());
+        this.payloadCodec = new TaskEventPayloadCodec();
+        TaskFixtures.inject(this.payloadCodec, "cacheManager", cacheManager);
+        TaskFixtures.inject(this.payloadCodec, "logger", TaskFixtures.mock(Logger.class));
+        this.payloadCodec.initialize();
+
+        this.converter = new TaskFlowEventConverter();
+        TaskFixtures.inject(this.converter, "defaultConverter", defaultConverter);
+        TaskFixtures.inject(this.converter, "payloadCodec", this.payloadCodec);
+
+        Set<String> target = Set.of("xwiki:XWiki.User0");
+        this.assignedEvent = new TaskFlowAssignedEvent(target, TaskFixtures.digestTasks(1).get(0));
+        this.digestEvent = new TaskFlowDigestEvent(target, Map.of("taskCount", String.valueOf(this.taskCount)),
+            TaskFixtures.digestTasks(this.taskCount));
+
+        this.storedDigestEvent = TaskFixtures.mock(Event.class);
+        Mockito.when(this.storedDigestEvent.getBody()).thenReturn(this.payloadCodec.encode(this.digestEvent));
+    }
+
+    /**
+     * @return the converted assignment notification
+     * @throws Exception if the event cannot be converted
+     */
+    @Benchmark
+    public Event convertAssigned() throws Exception
+    {
+        return this.converter.convert(this.assignedEvent, SOURCE, null);
+    }
+
+    /**
+     * @return the converted digest notification
+     * @throws Exception if the event cannot be converted
+     */
+    @Benchmark
+    public Event convertDigest() throws Exception
+    {
+        return this.converter.convert(this.digestEvent, SOURCE, null);
+    }
+
+    /**
+     * @return the parameters read from the body of the stored digest notification
+     */
+    @Benchmark
+    public TaskEventPayload decodeDigest()
+    {
+        return this.payloadCodec.decode(this.storedDigestEvent);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.benchmarks;
+
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.xwiki.contrib.taskflow.internal.DefaultTaskFlowManager;
+import org.xwiki.contrib.taskflow.internal.index.TaskDueDateIndex;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.query.QueryException;
+
+/**
+ * Measures the selection of the reminders to send in the coming hour, among 1 to 10,000 open tasks due in the next
+ * days, and the generation of the task identifiers.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskReminderBenchmark
+{
+    @Param({ "1", "10", "100", "1000", "10000" })
+    private int taskCount;
+
+    private DefaultTaskFlowManager taskFlowManager;
+
+    private Date from;
+
+    private Date to;
+
+    /**
+     * Sets up the task flow manager over a due date index holding the synthetic tasks.
+     *
+     * @throws QueryException if the due date index cannot be mocked
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws QueryException
+    {
+        this.from = new Date();
+        this.to = Date.from(this.from.toInstant().plus(1, ChronoUnit.HOURS));
+
+        TaskDueDateIndex dueDateIndex = TaskFixtures.dueDateIndex(TaskFixtures.dueEntries(this.taskCount, this.from));
+
+        this.taskFlowManager = new DefaultTaskFlowManager();
+        TaskFixtures.inject(this.taskFlowManager, "logger", TaskFixtures.mock(Logger.class));
+        TaskFixtures.inject(this.taskFlowManager, "dueDateIndex", dueDateIndex);
+        TaskFixtures.inject(this.taskFlowManager, "metrics", new TaskFlowMetrics());
+    }
+
+    /**
+     * Selects the reminders as the reminder scheduler does, skipping the ones already sent.
+     *
+     * @param blackhole consumes the reminders of each user
+     * @throws QueryException if the due tasks cannot be retrieved
+     */
+    @Benchmark
+    public void streamTasksToRemind(Blackhole blackhole) throws QueryException
+    {
+        this.taskFlowManager.streamTasksToRemind(this.from, this.to, new HashSet<>(),
+            (userReference, reminders) -> blackhole.consume(reminders));
+    }
+
+    /**
+     * @return a new task identifier
+     */
+    @Benchmark
+    public String generateRID()
+    {
+        return this.taskFlowManager.generateRID();
+    }
+}
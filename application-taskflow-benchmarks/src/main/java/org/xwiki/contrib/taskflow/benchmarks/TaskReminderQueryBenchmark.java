@@ -0,0 +1,260 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.benchmarks;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.xwiki.contrib.taskflow.internal.DefaultTaskFlowManager;
+import org.xwiki.contrib.taskflow.internal.ReminderInterval;
+import org.xwiki.contrib.taskflow.internal.TaskDueEntry;
+import org.xwiki.contrib.taskflow.internal.index.TaskDueDateIndex;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryException;
+
+/**
+ * Compares the number of store round trips and the wall time of the selection of the reminders of the coming hour
+ * between the implementations that followed each other:
+ * <ul>
+ * <li>one due date query per reminder interval, each followed by the loading of the matching documents, as the first
+ * versions of the application did;</li>
+ * <li>a single query over the window covering all the intervals, loading each matching document once;</li>
+ * <li>the lookup in the in-memory due date index, used since then, which doesn't reach the store.</li>
+ * </ul>
+ * The store is simulated in memory: each query and each document load counts as one round trip, which waits for
+ * {@code roundTripMicros} to stand for the database latency. The {@code queries} and {@code documentLoads} secondary
+ * results give the number of round trips per run.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskReminderQueryBenchmark
+{
+    @Param({ "100", "1000", "10000" })
+    private int taskCount;
+
+    @Param({ "0", "200" })
+    private long roundTripMicros;
+
+    private DefaultTaskFlowManager taskFlowManager;
+
+    private Date from;
+
+    private Date to;
+
+    /**
+     * The open tasks, by due date, as the due date queries see them.
+     */
+    private List<TaskDueEntry> tasksByDueDate;
+
+    /**
+     * The tasks of each document, as loading the document returns them.
+     */
+    private Map<DocumentReference, List<TaskDueEntry>> documents;
+
+    /**
+     * Counts the store round trips of each run.
+     *
+     * @version $Id$
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RoundTrips
+    {
+        /**
+         * The number of due date queries.
+         */
+        public long queries;
+
+        /**
+         * The number of loaded documents.
+         */
+        public long documentLoads;
+    }
+
+    /**
+     * Sets up the simulated store and the task flow manager over a due date index holding the same tasks.
+     *
+     * @throws QueryException if the due date index cannot be mocked
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws QueryException
+    {
+        this.from = new Date();
+        this.to = Date.from(this.from.toInstant().plus(1, ChronoUnit.HOURS));
+
+        List<TaskDueEntry> dueEntries = TaskFixtures.dueEntries(this.taskCount, this.from);
+        this.tasksByDueDate = new ArrayList<>(dueEntries);
+        this.tasksByDueDate.sort(Comparator.comparing(TaskDueEntry::getDueDate));
+        this.documents = new HashMap<>();
+        for (TaskDueEntry dueEntry : dueEntries) {
+            this.documents.computeIfAbsent(dueEntry.getDocumentReference(), k -> new ArrayList<>()).add(dueEntry);
+        }
+
+        TaskDueDateIndex dueDateIndex = TaskFixtures.dueDateIndex(dueEntries);
+
+        this.taskFlowManager = new DefaultTaskFlowManager();
+        TaskFixtures.inject(this.taskFlowManager, "logger", TaskFixtures.mock(Logger.class));
+        TaskFixtures.inject(this.taskFlowManager, "dueDateIndex", dueDateIndex);
+        TaskFixtures.inject(this.taskFlowManager, "metrics", new TaskFlowMetrics());
+    }
+
+    /**
+     * Runs one due date query per reminder interval, over the hour starting that many hours from now, and loads the
+     * documents matching each query.
+     *
+     * @param roundTrips counts the store round trips
+     * @param blackhole consumes the reminders
+     */
+    @Benchmark
+    public void perIntervalQueries(RoundTrips roundTrips, Blackhole blackhole)
+    {
+        // interval → user → document → task identifiers, as returned by the first versions.
+        Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> tasksToRemind = new HashMap<>();
+        for (ReminderInterval interval : ReminderInterval.values()) {
+            Instant start = this.from.toInstant().plus(interval.getOffset());
+            Instant end = start.plus(1, ChronoUnit.HOURS);
+            for (DocumentReference documentReference : query(start, end, roundTrips)) {
+                for (TaskDueEntry task : load(documentReference, roundTrips)) {
+                    Instant dueDate = task.getDueDate().toInstant();
+                    if (task.getReminderTimes().contains(interval.getKey()) && !dueDate.isBefore(start)
+                        && dueDate.isBefore(end))
+                    {
+                        for (DocumentReference userReference : task.getResponsible()) {
+                            tasksToRemind.computeIfAbsent(interval.getKey(), k -> new HashMap<>())
+                                .computeIfAbsent(userReference, k -> new HashMap<>())
+                                .computeIfAbsent(documentReference, k -> new ArrayList<>()).add(task.getRid());
+                        }
+                    }
+                }
+            }
+        }
+        blackhole.consume(tasksToRemind);
+    }
+
+    /**
+     * Runs a single due date query over the window covering all the reminder intervals, loads each matching document
+     * once and assigns its tasks to their intervals in memory.
+     *
+     * @param roundTrips counts the store round trips
+     * @param blackhole consumes the reminders
+     */
+    @Benchmark
+    public void windowQuery(RoundTrips roundTrips, Blackhole blackhole)
+    {
+        Instant windowStart = this.from.toInstant().plus(ReminderInterval.H1.getOffset());
+        Instant windowEnd = this.to.toInstant().plus(ReminderInterval.D5.getOffset());
+        Map<String, Map<DocumentReference, Map<DocumentReference, List<String>>>> tasksToRemind = new HashMap<>();
+        for (DocumentReference documentReference : query(windowStart, windowEnd, roundTrips)) {
+            for (TaskDueEntry task : load(documentReference, roundTrips)) {
+                Instant dueDate = task.getDueDate().toInstant();
+                for (String intervalKey : task.getReminderTimes()) {
+                    ReminderInterval interval = ReminderInterval.fromKey(intervalKey);
+                    Instant reminderDate = dueDate.minus(interval.getOffset());
+                    if (!reminderDate.isBefore(this.from.toInstant()) && reminderDate.isBefore(this.to.toInstant())) {
+                        for (DocumentReference userReference : task.getResponsible()) {
+                            tasksToRemind.computeIfAbsent(intervalKey, k -> new HashMap<>())
+                                .computeIfAbsent(userReference, k -> new HashMap<>())
+                                .computeIfAbsent(documentReference, k -> new ArrayList<>()).add(task.getRid());
+                        }
+                    }
+                }
+            }
+        }
+        blackhole.consume(tasksToRemind);
+    }
+
+    /**
+     * Selects the reminders from the in-memory due date index, as the reminder scheduler does now.
+     *
+     * @param roundTrips counts the store round trips, none here
+     * @param blackhole consumes the reminders of each user
+     * @throws QueryException if the due tasks cannot be retrieved
+     */
+    @Benchmark
+    public void dueDateIndex(RoundTrips roundTrips, Blackhole blackhole) throws QueryException
+    {
+        this.taskFlowManager.streamTasksToRemind(this.from, this.to, new HashSet<>(),
+            (userReference, reminders) -> blackhole.consume(reminders));
+    }
+
+    private Set<DocumentReference> query(Instant start, Instant end, RoundTrips roundTrips)
+    {
+        roundTrip();
+        roundTrips.queries++;
+        Set<DocumentReference> documentReferences = new LinkedHashSet<>();
+        for (TaskDueEntry task : this.tasksByDueDate) {
+            Instant dueDate = task.getDueDate().toInstant();
+            if (!dueDate.isBefore(end)) {
+                break;
+            } else if (!dueDate.isBefore(start)) {
+                documentReferences.add(task.getDocumentReference());
+            }
+        }
+        return documentReferences;
+    }
+
+    private List<TaskDueEntry> load(DocumentReference documentReference, RoundTrips roundTrips)
+    {
+        roundTrip();
+        roundTrips.documentLoads++;
+        return this.documents.getOrDefault(documentReference, List.of());
+    }
+
+    private void roundTrip()
+    {
+        if (this.roundTripMicros > 0) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(this.roundTripMicros));
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.taskflow.benchmarks;
+
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentUpdatingEvent;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.contrib.taskflow.internal.CheckTaskScanner;
+import org.xwiki.contrib.taskflow.internal.DefaultTaskFlowManager;
+import org.xwiki.contrib.taskflow.internal.TaskMacroProcessor;
+import org.xwiki.contrib.taskflow.internal.TaskSynchronization;
+import org.xwiki.contrib.taskflow.internal.listener.TaskFlowListener;
+import org.xwiki.contrib.taskflow.internal.metrics.TaskFlowMetrics;
+import org.xwiki.contrib.taskflow.internal.notification.TaskFlowNotificationDispatcher;
+import org.xwiki.contrib.taskflow.internal.status.TaskStatusService;
+import org.xwiki.contrib.taskflow.internal.store.TaskAssignmentStore;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.rendering.block.Block;
+import org.xwiki.rendering.block.MacroBlock;
+import org.xwiki.rendering.block.match.MacroBlockMatcher;
+import org.xwiki.rendering.parser.Parser;
+import org.xwiki.rendering.renderer.BlockRenderer;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * Measures the synchronization of the task objects of a page with its checktask macros, as done by the
+ * {@link TaskFlowListener} each time a page is saved, for pages holding from 1 to 10,000 tasks.
+ *
+ * @version $Id$
+ * @since 2.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskSynchronizationBenchmark
+{
+    private static final String CHECKTASK = "checktask";
+
+    @Param({ "1", "10", "100", "1000", "10000" })
+    private int taskCount;
+
+    private String savedContent;
+
+    private String newContent;
+
+    private List<BaseObject> taskObjects;
+
+    private List<MacroBlock> macroBlocks;
+
+    private DocumentReference taskClassReference;
+
+    private XWikiContext context;
+
+    private CheckTaskScanner scanner;
+
+    private TaskMacroProcessor macroProcessor;
+
+    private TaskFlowListener listener;
+
+    private XWikiDocument savedDocument;
+
+    private XWikiDocument newDocument;
+
+    private Parser parser;
+
+    /**
+     * Generates the synthetic pages and sets up the components with mocked XWiki dependencies.
+     *
+     * @throws Exception if the rendering components cannot be initialized
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        this.savedContent = TaskFixtures.content(this.taskCount, true);
+        this.newContent = TaskFixtures.content(this.taskCount, false);
+        this.taskObjects = TaskFixtures.taskObjects(this.taskCount);
+
+        EmbeddableComponentManager componentManager = new EmbeddableComponentManager();
+        componentManager.initialize(getClass().getClassLoader());
+        this.parser = componentManager.getInstance(Parser.class, Syntax.XWIKI_2_1.toIdString());
+        this.macroBlocks = this.parser.parse(new StringReader(this.savedContent))
+            .getBlocks(new MacroBlockMatcher(CHECKTASK), Block.Axes.DESCENDANT);
+
+        this.taskClassReference = new DocumentReference("xwiki", List.of("Macros", "CheckboxedTask", "Code"),
+            "TaskClass");
+        DocumentReference user = TaskFixtures.userReference(0);
+        XWiki xwiki = TaskFixtures.mock(XWiki.class);
+        Mockito.when(xwiki.getXWikiPreference(Mockito.eq("dateformat"), Mockito.anyString(), Mockito.any()))
+            .thenReturn(TaskFixtures.DATE_FORMAT);
+        this.context = TaskFixtures.mock(XWikiContext.class);
+        Mockito.when(this.context.getWiki()).thenReturn(xwiki);
+        Mockito.when(this.context.getUserReference()).thenReturn(user);
+        // The listener keeps the notifications of the save in the context.
+        Map<Object, Object> contextAttributes = new HashMap<>();
+        Mockito.when(this.context.computeIfAbsent(Mockito.any(), Mockito.any())).thenAnswer(
+            invocation -> contextAttributes.computeIfAbsent(invocation.getArgument(0), invocation.getArgument(1)));
+
+        this.scanner = new CheckTaskScanner();
+        this.macroProcessor = createMacroProcessor(user);
+        this.listener = createListener(componentManager);
+
+        // The page saved again without changing its tasks, and the page whose tasks have just been written.
+        this.savedDocument = mockDocument(this.savedContent, this.taskObjects);
+        this.newDocument = mockDocument(this.newContent, Collections.emptyList());
+    }
+
+    /**
+     * @param blackhole consumes the found macros
+     */
+    @Benchmark
+    public void scan(Blackhole blackhole)
+    {
+        blackhole.consume(this.scanner.scan(this.savedContent));
+    }
+
+    /**
+     * The full parsing of the content, which the scanner replaces and which remains the fallback.
+     *
+     * @param blackhole consumes the found macros
+     * @throws Exception if the content cannot be parsed
+     */
+    @Benchmark
+    public void parse(Blackhole blackhole) throws Exception
+    {
+        blackhole.consume(this.parser.parse(new StringReader(this.savedContent))
+            .getBlocks(new MacroBlockMatcher(CHECKTASK), Block.Axes.DESCENDANT));
+    }
+
+    /**
+     * @param blackhole consumes the found task identifiers
+     * @throws Exception if the macros cannot be processed
+     */
+    @Benchmark
+    public void processMacro(Blackhole blackhole) throws Exception
+    {
+        TaskSynchronization synchronization = new TaskSynchronization(this.savedDocument, this.taskClassReference,
+            new SimpleDateFormat(TaskFixtures.DATE_FORMAT), this.context);
+        for (MacroBlock macroBlock : this.macroBlocks) {
+            this.macroProcessor.processMacro(macroBlock, synchronization);
+        }
+        blackhole.consume(synchronization.getFoundRids());
+    }
+
+    /**
+     * A page saved again, whose tasks are all up to date.
+     */
+    @Benchmark
+    public void synchronizeSavedTasks()
+    {
+        this.listener.onEvent(new DocumentUpdatingEvent(), this.savedDocument, this.context);
+    }
+
+    /**
+     * A page whose tasks have just been written: they get an identifier, a task object and a notification.
+     */
+    @Benchmark
+    public void synchronizeNewTasks()
+    {
+        this.listener.onEvent(new DocumentUpdatingEvent(), this.newDocument, this.context);
+    }
+
+    private TaskMacroProcessor createMacroProcessor(DocumentReference user)
+    {
+        @SuppressWarnings("unchecked")
+        DocumentReferenceResolver<String> resolver = TaskFixtures.mock(DocumentReferenceResolver.class);
+        Mockito.when(resolver.resolve(Mockito.anyString())).thenReturn(user);
+        @SuppressWarnings("unchecked")
+        EntityReferenceSerializer<String> serializer = TaskFixtures.mock(EntityReferenceSerializer.class);
+        Mockito.when(serializer.serialize(Mockito.any())).thenReturn("XWiki.User0");
+
+        TaskMacroProcessor processor = new TaskMacroProcessor();
+        TaskFixtures.inject(processor, "taskFlowManager", new DefaultTaskFlowManager());
+        TaskFixtures.inject(processor, "resolver", resolver);
+        TaskFixtures.inject(processor, "serializer", serializer);
+        return processor;
+    }
+
+    private TaskFlowListener createListener(EmbeddableComponentManager componentManager) throws Exception
+    {
+        @SuppressWarnings("unchecked")
+        DocumentReferenceResolver<String> resolver = TaskFixtures.mock(DocumentReferenceResolver.class);
+        Mockito.when(resolver.resolve("Macros.CheckboxedTask.WebHome"))
+            .thenReturn(new DocumentReference("xwiki", List.of("Macros", "CheckboxedTask"), "WebHome"));
+        Mockito.when(resolver.resolve("Macros.CheckboxedTask.Code.TaskClass")).thenReturn(this.taskClassReference);
+
+        TaskFlowListener taskFlowListener = new TaskFlowListener();
+        TaskFixtures.inject(taskFlowListener, "resolver", resolver);
+        TaskFixtures.inject(taskFlowListener, "logger", TaskFixtures.mock(Logger.class));
+        TaskFixtures.inject(taskFlowListener, "parser", this.parser);
+        TaskFixtures.inject(taskFlowListener, "blockRenderer",
+            componentManager.getInstance(BlockRenderer.class, Syntax.XWIKI_2_1.toIdString()));
+        TaskFixtures.inject(taskFlowListener, "macroProcessor", this.macroProcessor);
+        TaskFixtures.inject(taskFlowListener, "checkTaskScanner", this.scanner);
+        TaskFixtures.inject(taskFlowListener, "assignmentStore", TaskFixtures.mock(TaskAssignmentStore.class));
+        TaskFixtures.inject(taskFlowListener, "statusService", TaskFixtures.mock(TaskStatusService.class));
+        TaskFixtures.inject(taskFlowListener, "notificationDispatcher",
+            TaskFixtures.mock(TaskFlowNotificationDispatcher.class));
+        // Not initialized, so that it is not registered over JMX.
+        TaskFixtures.inject(taskFlowListener, "metrics", new TaskFlowMetrics());
+        return taskFlowListener;
+    }
+
+    private XWikiDocument mockDocument(String content, List<BaseObject> objects) throws Exception
+    {
+        XWikiDocument document = TaskFixtures.mock(XWikiDocument.class);
+        Mockito.when(document.getDocumentReference()).thenReturn(TaskFixtures.page(0));
+        Mockito.when(document.getContent()).thenReturn(content);
+        Mockito.when(document.isContentDirty()).thenReturn(true);
+        // A new list each time, since the synchronization removes the stale task objects while iterating them.
+        Mockito.when(document.getXObjects(this.taskClassReference)).thenAnswer(invocation -> new ArrayList<>(objects));
+        Mockito.when(document.newXObject(Mockito.any(DocumentReference.class), Mockito.any()))
+            .thenAnswer(invocation -> new BaseObject());
+        Mockito.when(document.getExternalURL(Mockito.anyString(), Mockito.any()))
+            .thenReturn("https://wiki.example.org/xwiki/bin/view/Benchmarks/Page0");
+        return document;
+    }
+}